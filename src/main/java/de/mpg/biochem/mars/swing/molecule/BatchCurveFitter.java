@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.molecule;
+
+
+import java.awt.AWTEvent;
+import java.awt.Component;
+import java.awt.TextField;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+
+import de.mpg.biochem.mars.molecule.MarsImageMetadata;
+import de.mpg.biochem.mars.molecule.Molecule;
+import de.mpg.biochem.mars.molecule.MoleculeArchive;
+import de.mpg.biochem.mars.molecule.MoleculeArchiveProperties;
+import de.mpg.biochem.mars.swing.plot.FitFunctions;
+import de.mpg.biochem.mars.swing.plot.LMCurveFitter;
+import de.mpg.biochem.mars.swing.plot.LMFunction;
+import de.mpg.biochem.mars.swing.plot.LMWorkspace;
+import de.mpg.biochem.mars.swing.plot.LMplotfit;
+import de.mpg.biochem.mars.table.MarsTable;
+import ij.IJ;
+import ij.gui.DialogListener;
+import ij.gui.GenericDialog;
+
+/**
+ * Fits the same function to the DataTable of every molecule in an archive, or only
+ * those with one of the given tags, and stores the results as molecule parameters
+ * (prefix_a, prefix_sd_a, ..., prefix_chi2 and prefix_R2). Molecules are fit in
+ * parallel on a fork-join pool and every worker thread reuses its own workspace.
+ */
+public class BatchCurveFitter implements DialogListener {
+	
+	private String[] functions = {"linear","gaussian","exponential decay","other"};
+	private String fitFunction = FitFunctions.LINEAR;
+	private String initialParameters = "1,1";
+	private String previousChoice = "linear";
+	private String xColumn = "slice";
+	private String yColumn = "y";
+	private String tags = "";
+	private String prefix = "fit";
+	private int maxIterations = 10000;
+	private double precision = 0.00001;
+	
+	private MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive;
+	
+	private LMFunction function;
+	private double[] initial;
+	
+	private AtomicBoolean canceled = new AtomicBoolean(false);
+	private AtomicInteger fitted = new AtomicInteger();
+	private AtomicInteger failed = new AtomicInteger();
+	
+	public BatchCurveFitter(MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive) {
+		this.archive = archive;
+	}
+	
+	/**
+	 * @return true if the dialog was confirmed and the settings are valid.
+	 */
+	public boolean showDialog() {
+		GenericDialog dialog = new GenericDialog("Batch Curve Fitter");
+		dialog.addStringField("x_column", xColumn, 25);
+		dialog.addStringField("y_column", yColumn, 25);
+		dialog.addChoice("Functions", functions, previousChoice);
+		dialog.addStringField("Function", fitFunction, 25);
+		dialog.addStringField("initial_parameters", initialParameters, 25);
+		dialog.addNumericField("Fitting precision", precision, 8, 10, "");
+		dialog.addNumericField("Max iterations", maxIterations, 0, 10, "");
+		dialog.addStringField("Tags (comma separated list)", tags, 25);
+		dialog.addStringField("Parameter prefix", prefix, 25);
+		dialog.addDialogListener(this);
+		dialog.showDialog();
+		
+		if (dialog.wasCanceled())
+			return false;
+		
+		try {
+			String[] values = initialParameters.split(",");
+			initial = new double[values.length];
+			for (int i = 0; i < values.length; i++)
+				initial[i] = Double.parseDouble(values[i].trim());
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(null, "The initial parameters " + initialParameters + " are not valid.", "Batch Curve Fitter", JOptionPane.ERROR_MESSAGE);
+			return false;
+		}
+		
+		//The macro interpreter fallback of LMCurveFitter can't be used from several threads
+		try {
+			function = FitFunctions.forExpression(fitFunction, initial.length);
+		} catch (ParseException e) {
+			JOptionPane.showMessageDialog(null, e.getMessage(), "Batch Curve Fitter", JOptionPane.ERROR_MESSAGE);
+			return false;
+		}
+		if (function == null) {
+			JOptionPane.showMessageDialog(null, "The function " + fitFunction + " could not be compiled.", "Batch Curve Fitter", JOptionPane.ERROR_MESSAGE);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Runs the fits in the background with a progress monitor. The molecules must not be
+	 * modified elsewhere until onFinished has run on the event dispatch thread.
+	 */
+	public void run(Component parent, Runnable onFinished) {
+		List<String> UIDs = moleculesToFit();
+		
+		ProgressMonitor progressMonitor = new ProgressMonitor(parent, "Fitting " + UIDs.size() + " molecules", "", 0, 100);
+		progressMonitor.setMillisToDecideToPopup(0);
+		
+		canceled.set(false);
+		fitted.set(0);
+		failed.set(0);
+		
+		SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws Exception {
+				AtomicInteger done = new AtomicInteger();
+				
+				LMplotfit lm = new LMplotfit(function, initial.length, precision, maxIterations);
+				ThreadLocal<Fitter> fitters = ThreadLocal.withInitial(() -> new Fitter(lm));
+				
+				ForkJoinPool pool = new ForkJoinPool();
+				try {
+					pool.submit(() -> UIDs.parallelStream().forEach(UID -> {
+						if (canceled.get())
+							return;
+						
+						if (fitters.get().fit(UID))
+							fitted.incrementAndGet();
+						else
+							failed.incrementAndGet();
+						
+						setProgress(100 * done.incrementAndGet() / UIDs.size());
+					})).get();
+				} finally {
+					pool.shutdown();
+				}
+				return null;
+			}
+			
+			@Override
+			protected void done() {
+				progressMonitor.close();
+				try {
+					get();
+				} catch (ExecutionException e) {
+					Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+					cause.printStackTrace();
+					JOptionPane.showMessageDialog(parent, String.format("Fitting stopped after %d molecules, the others were left unchanged : %s", 
+							fitted.get() + failed.get(), cause), "Batch Curve Fitter", JOptionPane.ERROR_MESSAGE);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				
+				IJ.log("Batch Curve Fitter: fit " + fitted.get() + " molecules" + ((failed.get() > 0) ? ", " + failed.get() + " failed" : "") 
+						+ (canceled.get() ? " (canceled)" : ""));
+				
+				onFinished.run();
+			}
+		};
+		
+		worker.addPropertyChangeListener(event -> {
+			if ("progress".equals(event.getPropertyName())) {
+				progressMonitor.setProgress((Integer) event.getNewValue());
+				progressMonitor.setNote(fitted.get() + " fit, " + failed.get() + " failed");
+			}
+			if (progressMonitor.isCanceled())
+				canceled.set(true);
+		});
+		
+		worker.execute();
+	}
+	
+	private List<String> moleculesToFit() {
+		if (tags.trim().isEmpty())
+			return archive.getMoleculeUIDs();
+		
+		String[] tagList = tags.split(",");
+		for (int i = 0; i < tagList.length; i++)
+			tagList[i] = tagList[i].trim();
+		
+		List<String> UIDs = new ArrayList<String>();
+		for (String UID : archive.getMoleculeUIDs()) {
+			for (String tag : tagList) {
+				if (archive.moleculeHasTag(UID, tag)) {
+					UIDs.add(UID);
+					break;
+				}
+			}
+		}
+		return UIDs;
+	}
+	
+	//Fit state of one worker thread, the fitter itself is shared.
+	private class Fitter {
+		private final LMplotfit lm;
+		private final LMWorkspace workspace = new LMWorkspace();
+		private final double[] parameters;
+		private final double[] stdDev;
+		
+		Fitter(LMplotfit lm) {
+			this.lm = lm;
+			parameters = new double[initial.length];
+			stdDev = new double[initial.length];
+		}
+		
+		boolean fit(String UID) {
+			Molecule molecule = archive.get(UID);
+			MarsTable table = molecule.getDataTable();
+			
+			if (!table.getColumnHeadingList().contains(xColumn) || !table.getColumnHeadingList().contains(yColumn))
+				return false;
+			
+			double[] x = table.getColumnAsDoubles(xColumn);
+			double[] y = table.getColumnAsDoubles(yColumn);
+			
+			//Drop rows with NaN values in place
+			int n = 0;
+			for (int i = 0; i < x.length; i++) {
+				if (Double.isNaN(x[i]) || Double.isNaN(y[i]))
+					continue;
+				x[n] = x[i];
+				y[n] = y[i];
+				n++;
+			}
+			if (n <= parameters.length)
+				return false;
+			if (n < x.length) {
+				x = Arrays.copyOf(x, n);
+				y = Arrays.copyOf(y, n);
+			}
+			
+			System.arraycopy(initial, 0, parameters, 0, parameters.length);
+			try {
+				lm.solve(parameters, null, x, y, null, 0.001, stdDev, workspace);
+			} catch (RuntimeException e) {
+				//Errors evaluating the function, leave the molecule untouched
+				return false;
+			}
+			
+			//Singular or degenerate curvature matrices end up as NaN or infinite values
+			if (!isFinite(parameters) || !isFinite(stdDev) || !Double.isFinite(workspace.chiSquared))
+				return false;
+			
+			for (int i = 0; i < parameters.length; i++) {
+				molecule.setParameter(String.format("%s_%c", prefix, 'a' + i), parameters[i]);
+				molecule.setParameter(String.format("%s_sd_%c", prefix, 'a' + i), stdDev[i]);
+			}
+			molecule.setParameter(prefix + "_chi2", workspace.chiSquared);
+			molecule.setParameter(prefix + "_R2", LMCurveFitter.rSquared(y, workspace.chiSquared, parameters.length));
+			
+			archive.put(molecule);
+			return true;
+		}
+	}
+	
+	private static boolean isFinite(double[] values) {
+		for (double value : values)
+			if (!Double.isFinite(value))
+				return false;
+		return true;
+	}
+	
+	@Override
+	public boolean dialogItemChanged(GenericDialog dialog, AWTEvent e) {
+		xColumn = dialog.getNextString();
+		yColumn = dialog.getNextString();
+		
+		String fun = dialog.getNextChoice();
+		
+		if (!fun.equals(previousChoice)) {
+			@SuppressWarnings("rawtypes")
+			Vector textboxes = dialog.getStringFields();
+			
+			if (fun.equals("linear")) {
+				((TextField)textboxes.get(2)).setText(FitFunctions.LINEAR);
+				((TextField)textboxes.get(3)).setText("1,1");
+			} else if (fun.equals("gaussian")) {
+				((TextField)textboxes.get(2)).setText(FitFunctions.GAUSSIAN);
+				((TextField)textboxes.get(3)).setText("1,1,1");
+			} else if (fun.equals("exponential decay")) {
+				((TextField)textboxes.get(2)).setText(FitFunctions.EXPONENTIAL_DECAY);
+				((TextField)textboxes.get(3)).setText("1,1");
+			}
+		}
+		
+		previousChoice = fun;
+		
+		fitFunction = dialog.getNextString();
+		initialParameters = dialog.getNextString();
+		
+		precision = dialog.getNextNumber();
+		maxIterations = (int)dialog.getNextNumber();
+		
+		tags = dialog.getNextString();
+		prefix = dialog.getNextString();
+		
+		return true;
+	}
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.molecule;
+
+
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JLabel;
+import javax.swing.JTable;
+import javax.swing.table.TableColumnModel;
+
+import de.mpg.biochem.mars.swing.table.MarsTableModel;
+
+/**
+ * Estimates the preferred widths of table columns from a bounded sample of rows. 
+ * Numeric cells of a MarsTableModel are measured with the font metrics of their
+ * renderer from the primitive values, other cells through the renderer. Widths
+ * are cached by the column names, so a table with the same columns as one measured
+ * before is not measured again.
+ */
+class ColumnWidthEstimator {
+	private static final int MIN_WIDTH = 15;
+	private static final int MAX_WIDTH = 300;
+	
+	//Rows measured per column, half from the top and the rest spread over the table
+	private static final int SAMPLE_ROWS = 128;
+	
+	private static final int CACHE_SIZE = 16;
+	
+	private final Map<List<String>, int[]> widths = new LinkedHashMap<List<String>, int[]>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<String>, int[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	/**
+	 * Sets the preferred width of all columns of the table.
+	 */
+	void resize(JTable table) {
+		TableColumnModel columnModel = table.getColumnModel();
+		List<String> schema = new ArrayList<String>();
+		for (int column = 0; column < table.getColumnCount(); column++)
+			schema.add(table.getColumnName(column));
+		
+		int[] columnWidths = widths.get(schema);
+		if (columnWidths == null) {
+			int[] rows = sampleRows(table.getRowCount());
+			columnWidths = new int[table.getColumnCount()];
+			for (int column = 0; column < columnWidths.length; column++)
+				columnWidths[column] = Math.min(measure(table, column, rows), MAX_WIDTH);
+			
+			//An empty table says nothing about the widths of the next one
+			if (rows.length > 0)
+				widths.put(schema, columnWidths);
+		}
+		
+		for (int column = 0; column < columnWidths.length; column++)
+			columnModel.getColumn(column).setPreferredWidth(columnWidths[column]);
+	}
+	
+	private static int[] sampleRows(int rowCount) {
+		if (rowCount <= SAMPLE_ROWS) {
+			int[] rows = new int[rowCount];
+			for (int row = 0; row < rowCount; row++)
+				rows[row] = row;
+			return rows;
+		}
+		
+		int[] rows = new int[SAMPLE_ROWS];
+		int top = SAMPLE_ROWS / 2;
+		for (int row = 0; row < top; row++)
+			rows[row] = row;
+		
+		// the rest evenly spaced up to the last row
+		int spread = SAMPLE_ROWS - top;
+		for (int i = 1; i <= spread; i++)
+			rows[top + i - 1] = top + (int)((long)(rowCount - 1 - top) * i / spread);
+		return rows;
+	}
+	
+	private static int measure(JTable table, int column, int[] rows) {
+		int width = MIN_WIDTH;
+		if (rows.length == 0)
+			return width;
+		
+		// the first row goes through the renderer, which also gives the font and insets 
+		Component comp = table.prepareRenderer(table.getCellRenderer(rows[0], column), rows[0], column);
+		width = Math.max(comp.getPreferredSize().width + 1, width);
+		
+		int modelColumn = table.convertColumnIndexToModel(column);
+		if (table.getModel() instanceof MarsTableModel && ((MarsTableModel)table.getModel()).isNumeric(modelColumn)
+				&& comp instanceof JLabel) {
+			MarsTableModel model = (MarsTableModel)table.getModel();
+			JLabel label = (JLabel)comp;
+			FontMetrics metrics = label.getFontMetrics(label.getFont());
+			int padding = label.getPreferredSize().width - ((label.getText() == null) ? 0 : metrics.stringWidth(label.getText()));
+			
+			for (int i = 1; i < rows.length; i++) {
+				int modelRow = table.convertRowIndexToModel(rows[i]);
+				String text = (modelColumn == 0) ? Integer.toString(modelRow + 1) 
+						: Double.toString(model.getDouble(modelRow, modelColumn));
+				width = Math.max(metrics.stringWidth(text) + padding + 1, width);
+			}
+		} else {
+			for (int i = 1; i < rows.length; i++) {
+				comp = table.prepareRenderer(table.getCellRenderer(rows[i], column), rows[i], column);
+				width = Math.max(comp.getPreferredSize().width + 1, width);
+			}
+		}
+		return width;
+	}
+}
@@ -27,7 +27,6 @@
 package de.mpg.biochem.mars.swing.molecule;
 
 import java.awt.BorderLayout;
-import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridBagConstraints;
@@ -54,9 +53,7 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
-import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
-import javax.swing.table.TableColumnModel;
 import javax.swing.table.TableRowSorter;
 
 import org.apache.commons.lang3.StringUtils;
@@ -115,6 +112,12 @@ public class ImageMetadataPanel extends JPanel {
 	
 	private boolean imageMetadataRecordChanged = false;
 	
+	//Sampled column widths, reused for tables with the same columns
+	private final ColumnWidthEstimator columnWidths = new ColumnWidthEstimator();
+	
+	//Save points that had nothing to write
+	private long avoidedWrites = 0;
+	
 	private SdmmImageMetadata DummyImageMetadata = new SdmmImageMetadata("unknown", new MarsTable());
 	
 	public ImageMetadataPanel(MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive, UIService uiService) {
@@ -194,8 +197,7 @@ public class ImageMetadataPanel extends JPanel {
                 ListSelectionModel lsm = (ListSelectionModel)e.getSource();
                 if (!lsm.isSelectionEmpty()) {
                     int selectedRow = lsm.getMinSelectionIndex();
-                    if (imageMetadataRecordChanged && archive.getNumberOfImageMetadataRecords() != 0)
-                    	archive.putImageMetadata(imageMetadata);
+                    saveCurrentRecord();
                     imageMetadata = archive.getImageMetadata((String)imageMetadataIndex.getValueAt(selectedRow, 1));
                     updateAll();
                 }
@@ -282,22 +284,13 @@ public class ImageMetadataPanel extends JPanel {
         Notes.getDocument().addDocumentListener(
 	        new DocumentListener() {
 	            public void changedUpdate(DocumentEvent e) {
-	            	if (archive.getNumberOfImageMetadataRecords() != 0) {
-		            	imageMetadata.setNotes(Notes.getText());
-		            	archive.putImageMetadata(imageMetadata);
-	            	}
+	            	notesChanged();
 	            }
 	            public void insertUpdate(DocumentEvent e) {
-	            	if (archive.getNumberOfImageMetadataRecords() != 0) {
-		            	imageMetadata.setNotes(Notes.getText());
-		            	archive.putImageMetadata(imageMetadata);
-	            	}
+	            	notesChanged();
 	            }
 	            public void removeUpdate(DocumentEvent e) {
-	            	if (archive.getNumberOfImageMetadataRecords() != 0) {
-		            	imageMetadata.setNotes(Notes.getText());
-		            	archive.putImageMetadata(imageMetadata);
-	            	}
+	            	notesChanged();
 	            }
 	        });
 		metaDataTabs.addTab("Notes", commentScroll);
@@ -965,9 +958,35 @@ public class ImageMetadataPanel extends JPanel {
 		return tagPanel;
 	}
 	
+	/**
+	 * Writes the shown record to the archive if it was changed.
+	 */
 	public void saveCurrentRecord() {
-		if (archive.getNumberOfImageMetadataRecords() != 0)
-			archive.putImageMetadata(imageMetadata);
+		if (!imageMetadataRecordChanged || archive.getNumberOfImageMetadataRecords() == 0) {
+			avoidedWrites++;
+			return;
+		}
+		archive.putImageMetadata(imageMetadata);
+		imageMetadataRecordChanged = false;
+	}
+	
+	/**
+	 * @return the number of save points that skipped writing an unchanged record.
+	 */
+	public long getAvoidedWrites() {
+		return avoidedWrites;
+	}
+	
+	private void notesChanged() {
+		if (archive.getNumberOfImageMetadataRecords() == 0)
+			return;
+		
+		String text = Notes.getText();
+		String current = (imageMetadata.getNotes() == null) ? "" : imageMetadata.getNotes();
+		if (!text.equals(current)) {
+			imageMetadataRecordChanged = true;
+			imageMetadata.setNotes(text);
+		}
 	}
 	
 	public void updateAll() {
@@ -987,7 +1006,6 @@ public class ImageMetadataPanel extends JPanel {
 			imageMetadata = archive.getImageMetadata(imageMetadata.getUID());
 			Notes.setEditable(true);
 		}
-		imageMetadataRecordChanged = false;
 		
 		//Update index table in case tags were changed
 		if (imageMetadataCount < archive.getNumberOfImageMetadataRecords()) {
@@ -1036,6 +1054,9 @@ public class ImageMetadataPanel extends JPanel {
 		
 		//Update Comments
 		Notes.setText(imageMetadata.getNotes());
+		
+		//setText is reported as an edit of the notes
+		imageMetadataRecordChanged = false;
 				
 		//Update Log
 		log.setText(imageMetadata.getLog());
@@ -1078,17 +1099,6 @@ public class ImageMetadataPanel extends JPanel {
 	}
 	
 	public void resizeColumnWidth(JTable table) {
-	    final TableColumnModel columnModel = table.getColumnModel();
-	    for (int column = 0; column < table.getColumnCount(); column++) {
-	        int width = 15; // Min width
-	        for (int row = 0; row < table.getRowCount(); row++) {
-	            TableCellRenderer renderer = table.getCellRenderer(row, column);
-	            Component comp = table.prepareRenderer(renderer, row, column);
-	            width = Math.max(comp.getPreferredSize().width +1 , width);
-	        }
-	        if(width > 300)
-	            width=300;
-	        columnModel.getColumn(column).setPreferredWidth(width);
-	    }
+		columnWidths.resize(table);
 	}
 }
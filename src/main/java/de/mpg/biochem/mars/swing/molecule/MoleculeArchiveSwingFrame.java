@@ -143,6 +143,7 @@ public class MoleculeArchiveSwingFrame implements MoleculeArchiveWindow {
 	private JMenuItem deleteMenuItem = new JMenuItem("Delete Molecules");
 	private JMenuItem deleteTagsMenuItem = new JMenuItem("Delete Tags");
 	private JMenuItem deleteParametersMenuItem = new JMenuItem("Delete Parameters");
+	private JMenuItem batchFitMenuItem = new JMenuItem("Batch Curve Fit");
 	
 	private JMenuItem addToRoiManager = new JMenuItem("Add to ROIManager");
 	private JMenuItem mergeMenuItem = new JMenuItem("Merge Molecules");
@@ -581,6 +582,21 @@ public class MoleculeArchiveSwingFrame implements MoleculeArchiveWindow {
 	          }
 	       });
 		
+		toolsMenu.add(batchFitMenuItem);
+		batchFitMenuItem.addActionListener(new ActionListener() {
+	         public void actionPerformed(ActionEvent e) {
+	        	 if (!lockArchive) {
+			        moleculePanel.saveCurrentRecord();
+			        
+			        BatchCurveFitter fitter = new BatchCurveFitter(archive);
+			        if (fitter.showDialog()) {
+			        	lock();
+			        	fitter.run(frame, () -> unlock());
+			        }
+	        	 }
+	          }
+	       });
+		
 		toolsMenu.add(mergeMenuItem);
 		mergeMenuItem.addActionListener(new ActionListener() {
 	         public void actionPerformed(ActionEvent e) {
@@ -1112,6 +1128,8 @@ public class MoleculeArchiveSwingFrame implements MoleculeArchiveWindow {
 			}
 		}
 		
+		moleculePanel.shutdown();
+		
 		frame.setVisible(false);
 		frame.dispose();
 		
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.molecule;
+
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.mpg.biochem.mars.molecule.MarsImageMetadata;
+import de.mpg.biochem.mars.molecule.Molecule;
+import de.mpg.biochem.mars.molecule.MoleculeArchive;
+import de.mpg.biochem.mars.molecule.MoleculeArchiveProperties;
+
+/**
+ * Inverted index of the molecules of an archive for the search field of the 
+ * MoleculePanel. Tags and metadata UIDs map to the rows they occur in as BitSets 
+ * and UIDs are kept sorted for prefix lookups, so a search only combines a few
+ * BitSets instead of reading every row of the archive. 
+ * 
+ * The index is built on first use after it was invalidated, on the thread that 
+ * searches. Searching is thread safe.
+ */
+class MoleculeIndexSearch {
+	
+	private final MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive;
+	
+	//Snapshot of the archive index, replaced as a whole
+	private static class Index {
+		final int size;
+		final String[] sortedUIDs;
+		final int[] rowOfSortedUID;
+		final Map<String, BitSet> tags;
+		final Map<String, BitSet> metadataUIDs;
+		
+		Index(int size, String[] sortedUIDs, int[] rowOfSortedUID, Map<String, BitSet> tags, Map<String, BitSet> metadataUIDs) {
+			this.size = size;
+			this.sortedUIDs = sortedUIDs;
+			this.rowOfSortedUID = rowOfSortedUID;
+			this.tags = tags;
+			this.metadataUIDs = metadataUIDs;
+		}
+		
+		int rowOf(String uid) {
+			int i = Arrays.binarySearch(sortedUIDs, uid);
+			return (i < 0) ? -1 : rowOfSortedUID[i];
+		}
+	}
+	
+	private volatile Index index;
+	
+	//Indices built from an older state of the archive are dropped
+	private int generation = 0;
+	
+	MoleculeIndexSearch(MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive) {
+		this.archive = archive;
+	}
+	
+	/**
+	 * Rebuilds the index on the next search, after molecules were added, removed or
+	 * retagged in the archive.
+	 */
+	synchronized void invalidate() {
+		generation++;
+		index = null;
+	}
+	
+	/**
+	 * Updates the tags of one molecule without building the index again.
+	 */
+	synchronized void updateTags(String uid, Collection<String> moleculeTags) {
+		Index current = index;
+		if (current == null) {
+			// an index being built might have read the old tags
+			generation++;
+			return;
+		}
+		int row = current.rowOf(uid);
+		if (row == -1)
+			return;
+		
+		Map<String, BitSet> tags = new HashMap<String, BitSet>(current.tags);
+		for (Map.Entry<String, BitSet> entry : current.tags.entrySet()) {
+			if (entry.getValue().get(row) && !moleculeTags.contains(entry.getKey())) {
+				BitSet rows = (BitSet) entry.getValue().clone();
+				rows.clear(row);
+				tags.put(entry.getKey(), rows);
+			}
+		}
+		for (String tag : moleculeTags) {
+			BitSet rows = tags.get(tag);
+			if (rows != null && rows.get(row))
+				continue;
+			rows = (rows == null) ? new BitSet(current.size) : (BitSet) rows.clone();
+			rows.set(row);
+			tags.put(tag, rows);
+		}
+		index = new Index(current.size, current.sortedUIDs, current.rowOfSortedUID, tags, current.metadataUIDs);
+	}
+	
+	/**
+	 * Finds the rows matching all comma separated terms. A term matches a row if it 
+	 * is part of one of its tags or of its metadata UID, if it is the start of its 
+	 * UID or if it is the row index.
+	 * 
+	 * @return the matching rows or null if there are no terms.
+	 */
+	BitSet search(String text) {
+		Index current = index;
+		if (current == null)
+			current = build();
+		
+		BitSet result = null;
+		for (String term : text.split(",")) {
+			term = term.trim();
+			if (term.isEmpty())
+				continue;
+			
+			BitSet rows = find(current, term);
+			if (result == null)
+				result = rows;
+			else
+				result.and(rows);
+		}
+		return result;
+	}
+	
+	private static BitSet find(Index index, String term) {
+		BitSet rows = new BitSet(index.size);
+		
+		for (Map.Entry<String, BitSet> entry : index.tags.entrySet())
+			if (entry.getKey().contains(term))
+				rows.or(entry.getValue());
+		
+		for (Map.Entry<String, BitSet> entry : index.metadataUIDs.entrySet())
+			if (entry.getKey().contains(term))
+				rows.or(entry.getValue());
+		
+		// UIDs starting with the term are next to each other in sorted order
+		int from = Arrays.binarySearch(index.sortedUIDs, term);
+		if (from < 0)
+			from = -from - 1;
+		for (int i = from; i < index.sortedUIDs.length && index.sortedUIDs[i].startsWith(term); i++)
+			rows.set(index.rowOfSortedUID[i]);
+		
+		try {
+			int row = Integer.parseInt(term);
+			if (row >= 0 && row < index.size)
+				rows.set(row);
+		} catch (NumberFormatException e) {
+			// not a row index
+		}
+		
+		return rows;
+	}
+	
+	private Index build() {
+		int buildGeneration;
+		synchronized (this) {
+			buildGeneration = generation;
+		}
+		
+		int size = archive.getNumberOfMolecules();
+		String[] uids = new String[size];
+		Map<String, BitSet> tags = new HashMap<String, BitSet>();
+		Map<String, BitSet> metadataUIDs = new HashMap<String, BitSet>();
+		
+		for (int row = 0; row < size; row++) {
+			String uid = archive.getUIDAtIndex(row);
+			uids[row] = uid;
+			
+			String tagList = archive.getTagList(uid);
+			if (tagList != null) {
+				for (String tag : tagList.split(",")) {
+					tag = tag.trim();
+					if (!tag.isEmpty())
+						tags.computeIfAbsent(tag, key -> new BitSet(size)).set(row);
+				}
+			}
+			
+			String metadataUID = archive.getImageMetadataUIDforMolecule(uid);
+			if (metadataUID != null)
+				metadataUIDs.computeIfAbsent(metadataUID, key -> new BitSet(size)).set(row);
+		}
+		
+		Integer[] order = new Integer[size];
+		for (int row = 0; row < size; row++)
+			order[row] = row;
+		Arrays.sort(order, (a, b) -> uids[a].compareTo(uids[b]));
+		
+		String[] sortedUIDs = new String[size];
+		int[] rowOfSortedUID = new int[size];
+		for (int i = 0; i < size; i++) {
+			sortedUIDs[i] = uids[order[i]];
+			rowOfSortedUID[i] = order[i];
+		}
+		
+		Index built = new Index(size, sortedUIDs, rowOfSortedUID, tags, metadataUIDs);
+		synchronized (this) {
+			if (generation == buildGeneration)
+				index = built;
+		}
+		return built;
+	}
+}
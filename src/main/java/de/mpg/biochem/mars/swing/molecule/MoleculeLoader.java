@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.molecule;
+
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import de.mpg.biochem.mars.molecule.MarsImageMetadata;
+import de.mpg.biochem.mars.molecule.Molecule;
+import de.mpg.biochem.mars.molecule.MoleculeArchive;
+import de.mpg.biochem.mars.molecule.MoleculeArchiveProperties;
+
+/**
+ * Reads and writes molecule records of an archive in the background, which matters 
+ * for virtual storage where each record is a file. Records are read on one thread 
+ * from a priority queue: records that are shown go first, then prefetched records 
+ * closest to the selection. Records that were read are kept in a small cache. A
+ * record that is passed to put leaves the cache and is never read while its write
+ * is pending, so the instance being written is not handed out again.
+ * 
+ * Apart from the futures it hands out, this class is only used on the EDT.
+ */
+class MoleculeLoader {
+	
+	private static final AtomicLong sequence = new AtomicLong();
+	
+	private final MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive;
+	private final int cacheSize;
+	
+	private final ThreadPoolExecutor reader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, 
+			new PriorityBlockingQueue<Runnable>(), runnable -> {
+		Thread thread = new Thread(runnable, "Molecule reader");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Molecule writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final Map<String, Future<?>> pendingWrites = new ConcurrentHashMap<String, Future<?>>();
+	
+	private class Read implements Runnable, Comparable<Read> {
+		final String uid;
+		final CompletableFuture<Molecule> molecule = new CompletableFuture<Molecule>();
+		//0 for records that are shown, otherwise the distance from the selection
+		int priority;
+		final long order = sequence.getAndIncrement();
+		
+		Read(String uid, int priority) {
+			this.uid = uid;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Future<?> write = pendingWrites.get(uid);
+				if (write != null)
+					write.get();
+				molecule.complete(archive.get(uid));
+			} catch (InterruptedException | ExecutionException | RuntimeException e) {
+				molecule.completeExceptionally(e);
+			}
+		}
+
+		@Override
+		public int compareTo(Read other) {
+			if (priority != other.priority)
+				return Integer.compare(priority, other.priority);
+			return Long.compare(order, other.order);
+		}
+	}
+	
+	private final LinkedHashMap<String, Read> cache;
+	
+	MoleculeLoader(MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive, int cacheSize) {
+		this.archive = archive;
+		this.cacheSize = cacheSize;
+		this.cache = new LinkedHashMap<String, Read>(cacheSize, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Read> eldest) {
+				return size() > MoleculeLoader.this.cacheSize;
+			}
+		};
+	}
+	
+	/**
+	 * @return the record, read ahead of all prefetched records if it isn't cached.
+	 */
+	CompletableFuture<Molecule> load(String uid) {
+		Read read = cache.get(uid);
+		if (read == null) {
+			read = new Read(uid, 0);
+			cache.put(uid, read);
+			reader.execute(read);
+		} else if (read.priority > 0 && reader.getQueue().remove(read)) {
+			read.priority = 0;
+			reader.execute(read);
+		}
+		return read.molecule;
+	}
+	
+	/**
+	 * Reads the records in the background, in order. Prefetches that were queued 
+	 * earlier for other records are dropped.
+	 */
+	void prefetch(Collection<String> uids) {
+		Iterator<Runnable> queued = reader.getQueue().iterator();
+		while (queued.hasNext()) {
+			Read read = (Read) queued.next();
+			if (read.priority > 0 && !uids.contains(read.uid)) {
+				queued.remove();
+				cache.remove(read.uid, read);
+			}
+		}
+		
+		int priority = 1;
+		for (String uid : uids) {
+			if (!cache.containsKey(uid)) {
+				Read read = new Read(uid, priority);
+				cache.put(uid, read);
+				reader.execute(read);
+			}
+			priority++;
+		}
+	}
+	
+	/**
+	 * Writes the record in the background. The next load reads it again from the
+	 * archive once the write is done. A failed write is reported to the user.
+	 */
+	void put(Molecule molecule) {
+		String uid = molecule.getUID();
+		cache.remove(uid);
+		
+		Future<?>[] write = new Future<?>[1];
+		synchronized (write) {
+			write[0] = writer.submit(() -> {
+				try {
+					archive.put(molecule);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, 
+							String.format("could not write molecule %s : %s", uid, e.getMessage()), "Exception", JOptionPane.ERROR_MESSAGE));
+				} finally {
+					synchronized (write) {
+						pendingWrites.remove(uid, write[0]);
+					}
+				}
+			});
+			pendingWrites.put(uid, write[0]);
+		}
+	}
+	
+	/**
+	 * Waits until all records passed to put are written.
+	 */
+	void flush() {
+		try {
+			writer.submit(() -> {}).get();
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Drops cached and prefetched records after the archive was changed.
+	 */
+	void invalidate() {
+		Iterator<Runnable> queued = reader.getQueue().iterator();
+		while (queued.hasNext())
+			if (((Read) queued.next()).priority > 0)
+				queued.remove();
+		cache.clear();
+	}
+	
+	void shutdown() {
+		reader.shutdownNow();
+		writer.shutdown();
+	}
+}
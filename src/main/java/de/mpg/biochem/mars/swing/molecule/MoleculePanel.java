@@ -44,17 +44,23 @@ import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
@@ -65,6 +71,8 @@ import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
 import javax.swing.RowFilter;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -73,8 +81,6 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.TableCellRenderer;
-import javax.swing.table.TableColumnModel;
 import javax.swing.table.TableRowSorter;
 
 //import org.decimal4j.util.DoubleRounder;
@@ -84,6 +90,8 @@ import de.mpg.biochem.mars.swing.plot.BoundsChangedListener;
 import de.mpg.biochem.mars.swing.plot.CurvePlot;
 import de.mpg.biochem.mars.swing.plot.PlotPanel;
 import de.mpg.biochem.mars.swing.plot.PlotProperties;
+import de.mpg.biochem.mars.swing.table.MarsTableModel;
+import de.mpg.biochem.mars.swing.table.MarsTableTransferHandler;
 import de.mpg.biochem.mars.table.MarsTable;
 import de.mpg.biochem.mars.molecule.*;
 import ij.ImagePlus;
@@ -103,7 +111,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	private JScrollPane tablePane;
 	
 	private JTable DataTable;
-	private AbstractTableModel DataTableModel;
+	private MarsTableModel DataTableModel;
 	
 	private HashMap<String, String> tagHotKeyList;
 	
@@ -114,6 +122,9 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	private ArrayList<PlotPanel> multiPlots = new ArrayList<PlotPanel>();
 	private JPanel multiPlotPane;
 	private boolean multiPlot = false;
+	
+	//Segment table tabs by table column names, kept while molecules have the same segment tables
+	private Map<ArrayList<String>, JScrollPane> segmentTabs = new LinkedHashMap<ArrayList<String>, JScrollPane>();
 	private int numberOfPlots = 2;
 	
 	private JTable ParameterTable;
@@ -133,14 +144,41 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	private Molecule molecule;
 	private MoleculeArchive<Molecule, MarsImageMetadata, MoleculeArchiveProperties> archive;
 	
-	private boolean moleculeRecordChanged;
+	//Parts of the shown molecule changed since it was loaded
+	private static final int DATA = 1;
+	private static final int TAGS = 2;
+	private static final int PARAMETERS = 4;
+	private static final int NOTES = 8;
+	private int moleculeChanges;
+	
+	//Sampled column widths, reused for tables with the same columns
+	private final ColumnWidthEstimator columnWidths = new ColumnWidthEstimator();
+	
+	//Save points that had nothing to write
+	private long avoidedWrites = 0;
 	
 	private JTable moleculeIndex;
 	private AbstractTableModel moleculeIndexTableModel;
-	private TableRowSorter moleculeSorter;
+	private TableRowSorter<AbstractTableModel> moleculeSorter;
 
 	private JTextField moleculeSearchField;
 	
+	//Searches run on a background thread once typing pauses
+	private static final int SEARCH_DELAY = 150;
+	private MoleculeIndexSearch moleculeSearch;
+	private Timer searchTimer;
+	private int searchRequest = 0;
+	//Records are loaded in the background and neighbors in the list prefetched
+	private static final int PREFETCH = 4;
+	private MoleculeLoader moleculeLoader;
+	private int loadRequest = 0;
+	
+	private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Molecule search");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
 	//private int moleculeCount;
 	
 	private Molecule DummyMolecule = new SingleMolecule("unknown");
@@ -152,7 +190,9 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		} else {
 			molecule = DummyMolecule;
 		}
-		moleculeRecordChanged = false;
+		moleculeChanges = 0;
+		moleculeSearch = new MoleculeIndexSearch(archive);
+		moleculeLoader = new MoleculeLoader(archive, 4 * PREFETCH + 1);
 		
 		DummyMolecule.setDataTable(new MarsTable());
 		DummyMolecule.setImageMetadataUID("XXXXXXXXXX");
@@ -229,10 +269,8 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
                 ListSelectionModel lsm = (ListSelectionModel)e.getSource();
                 if (!lsm.isSelectionEmpty()) {
                     int selectedRow = lsm.getMinSelectionIndex();
-                    if (moleculeRecordChanged)
-                    	archive.put(molecule);
-                    molecule = archive.get((String)moleculeIndex.getValueAt(selectedRow, 1));
-                    updateAll();
+                    loadMolecule((String)moleculeIndex.getValueAt(selectedRow, 1));
+                    prefetchAround(selectedRow);
                 }
             }
         });
@@ -253,16 +291,23 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		
 		moleculeSearchField = new JTextField();
 		
+		searchTimer = new Timer(SEARCH_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				filterMoleculeIndex();
+			}
+		});
+		searchTimer.setRepeats(false);
+		
 		moleculeSearchField.getDocument().addDocumentListener(
 	        new DocumentListener() {
 	            public void changedUpdate(DocumentEvent e) {
-	                filterMoleculeIndex();
+	            	searchTimer.restart();
 	            }
 	            public void insertUpdate(DocumentEvent e) {
-	            	filterMoleculeIndex();
+	            	searchTimer.restart();
 	            }
 	            public void removeUpdate(DocumentEvent e) {
-	            	filterMoleculeIndex();
+	            	searchTimer.restart();
 	            }
 	        });
 		
@@ -304,51 +349,14 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	}
 	
 	private JScrollPane buildDataTable() {
-		DataTableModel = new AbstractTableModel() {
-			private static final long serialVersionUID = 1L;
-
-			@Override
-			public Object getValueAt(int rowIndex, int columnIndex) {
-				if (columnIndex == 0)
-					return rowIndex + 1;
-				
-				return molecule.getDataTable().getValue(columnIndex - 1, rowIndex);
-			}
-			
-			@Override
-			public String getColumnName(int columnIndex) {
-				if (columnIndex == 0)
-					return "Row";
-				
-				return molecule.getDataTable().getColumnHeader(columnIndex - 1);
-			}
-
-			@Override
-			public int getRowCount() {
-				return molecule.getDataTable().getRowCount();
-			}
-			
-			@Override
-			public int getColumnCount() {
-				return molecule.getDataTable().getColumnCount() + 1;
-			}
-			
-			@Override
-			public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-				double value = Double.parseDouble((String)aValue);
-				molecule.getDataTable().set(columnIndex - 1, rowIndex, value);
-			}
-			
-			@Override
-			public boolean isCellEditable(int rowIndex, int columnIndex)  {
-				return false;
-			}
-		};
+		DataTableModel = new MarsTableModel(molecule.getDataTable());
+		DataTableModel.setEditable(false);
 		
 		DataTable = new JTable(DataTableModel);
 		DataTable.setAutoCreateColumnsFromModel(true);
 		DataTable.setRowSelectionAllowed(true);
 		DataTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		DataTable.setTransferHandler(new MarsTableTransferHandler());
 		
 		resizeColumnWidth(DataTable);
 		DataTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
@@ -440,22 +448,13 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
         notes.getDocument().addDocumentListener(
 	        new DocumentListener() {
 	            public void changedUpdate(DocumentEvent e) {
-	                if (archive.getNumberOfMolecules() != 0) {
-	                	moleculeRecordChanged = true;
-	            		molecule.setNotes(notes.getText());
-	                }
+	            	notesChanged();
 	            }
 	            public void insertUpdate(DocumentEvent e) {
-	            	if (archive.getNumberOfMolecules() != 0) {
-	            		moleculeRecordChanged = true;
-	            		molecule.setNotes(notes.getText());
-	            	}
+	            	notesChanged();
 	            }
 	            public void removeUpdate(DocumentEvent e) {
-	            	if (archive.getNumberOfMolecules() != 0) {
-	            		moleculeRecordChanged = true;
-	            		molecule.setNotes(notes.getText());
-	            	}
+	            	notesChanged();
 	            }
 	        });
 		
@@ -509,7 +508,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 			
 			@Override
 			public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-				moleculeRecordChanged = true;
+				moleculeChanges |= PARAMETERS;
 				double value = Double.parseDouble((String)aValue);
 				molecule.setParameter(ParameterList[rowIndex], value);
 			}
@@ -567,7 +566,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		Add.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				if (!newParameter.getText().equals("") && archive.getNumberOfMolecules() != 0) {
-					moleculeRecordChanged = true;
+					moleculeChanges |= PARAMETERS;
 					molecule.setParameter(newParameter.getText().trim(), 0);
 					updateParameterList();
 					ParameterTableModel.fireTableDataChanged();
@@ -582,7 +581,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		Remove.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				if (ParameterTable.getSelectedRow() != -1 && archive.getNumberOfMolecules() != 0) {
-					moleculeRecordChanged = true;
+					moleculeChanges |= PARAMETERS;
 					String param = (String)ParameterTable.getValueAt(ParameterTable.getSelectedRow(), 0);
 					molecule.removeParameter(param);
 					updateParameterList();
@@ -670,7 +669,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		Add.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				if (!newTag.getText().equals("") && archive.getNumberOfMolecules() != 0) {
-					moleculeRecordChanged = true;
+					moleculeChanges |= TAGS;
 					molecule.addTag(newTag.getText().trim());
 					updateTagList();
 					TagTableModel.fireTableDataChanged();
@@ -690,7 +689,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 			public void actionPerformed(ActionEvent e) {
 				if (TagTable.getSelectedRow() != -1 && archive.getNumberOfMolecules() != 0) {
 					String tag = (String)TagTable.getValueAt(TagTable.getSelectedRow(), 0);
-					moleculeRecordChanged = true;
+					moleculeChanges |= TAGS;
 					molecule.removeTag(tag);
 					updateTagList();
 					TagTableModel.fireTableDataChanged();
@@ -706,46 +705,8 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	}
 	
 	public JScrollPane buildSegmentsTable(MarsTable segmentsTable) {	
-		AbstractTableModel SegmentTableModel = new AbstractTableModel() {
-			private static final long serialVersionUID = 1L;
-
-			@Override
-			public Object getValueAt(int rowIndex, int columnIndex) {
-				if (columnIndex == 0)
-					return rowIndex + 1;
-				
-				return segmentsTable.getValue(columnIndex - 1, rowIndex);
-			}
-			
-			@Override
-			public String getColumnName(int columnIndex) {
-				if (columnIndex == 0)
-					return "Row";
-				
-				return segmentsTable.getColumnHeader(columnIndex - 1);
-			}
-
-			@Override
-			public int getRowCount() {
-				return segmentsTable.getRowCount();
-			}
-			
-			@Override
-			public int getColumnCount() {
-				return segmentsTable.getColumnCount() + 1;
-			}
-			
-			@Override
-			public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-				double value = Double.parseDouble((String)aValue);
-				segmentsTable.set(columnIndex - 1, rowIndex, value);
-			}
-			
-			@Override
-			public boolean isCellEditable(int rowIndex, int columnIndex)  {
-				return false;
-			}
-		};
+		MarsTableModel SegmentTableModel = new MarsTableModel(segmentsTable);
+		SegmentTableModel.setEditable(false);
 			
 		JTable segTable = new JTable(SegmentTableModel);
 		segTable.setAutoCreateColumnsFromModel(true);
@@ -803,18 +764,110 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	 	dataANDPlot.setSelectedIndex(0);
 	}
 	
+	/**
+	 * Writes the shown molecule to the archive if it was changed.
+	 */
 	public void saveCurrentRecord() {
+		moleculeLoader.flush();
+		if (moleculeChanges == 0) {
+			avoidedWrites++;
+			return;
+		}
 		archive.put(molecule);
+		if ((moleculeChanges & TAGS) != 0)
+			moleculeSearch.updateTags(molecule.getUID(), molecule.getTags());
+		moleculeChanges = 0;
+	}
+	
+	/**
+	 * @return the number of save points that skipped writing an unchanged molecule.
+	 */
+	public long getAvoidedWrites() {
+		return avoidedWrites;
+	}
+	
+	//Writes the shown molecule back without waiting for it, only right before 
+	//another molecule is shown so it isn't edited while being written
+	private void writeBack() {
+		moleculeLoader.put(molecule);
+		if ((moleculeChanges & TAGS) != 0)
+			moleculeSearch.updateTags(molecule.getUID(), molecule.getTags());
+		moleculeChanges = 0;
+	}
+	
+	private void notesChanged() {
+		if (archive.getNumberOfMolecules() == 0)
+			return;
+		
+		String text = notes.getText();
+		String current = (molecule.getNotes() == null) ? "" : molecule.getNotes();
+		if (!text.equals(current)) {
+			moleculeChanges |= NOTES;
+			molecule.setNotes(text);
+		}
+	}
+	
+	//Shows the molecule once it is loaded, unless another one was selected in the meantime
+	private void loadMolecule(String uid) {
+		int request = ++loadRequest;
+		moleculeLoader.load(uid).whenCompleteAsync((loaded, error) -> {
+			if (request != loadRequest)
+				return;
+			if (error != null) {
+				error.printStackTrace();
+				JOptionPane.showMessageDialog(this, String.format("could not load molecule %s : %s", uid, error.getMessage()), "Exception", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			if (loaded == null)
+				return;
+			
+			if (loaded == molecule) {
+				// still the shown instance, its changes are written when leaving it
+				int changes = moleculeChanges;
+				showMolecule();
+				moleculeChanges = changes;
+				return;
+			}
+			
+			if (moleculeChanges != 0)
+				writeBack();
+			else
+				avoidedWrites++;
+			
+			molecule = loaded;
+			notes.setEditable(true);
+			showMolecule();
+		}, SwingUtilities::invokeLater);
+	}
+	
+	//Neighbors in the sorted and filtered list, closest first
+	private void prefetchAround(int viewRow) {
+		List<String> uids = new ArrayList<String>();
+		for (int distance = 1; distance <= PREFETCH; distance++) {
+			if (viewRow + distance < moleculeIndex.getRowCount())
+				uids.add((String)moleculeIndex.getValueAt(viewRow + distance, 1));
+			if (viewRow - distance >= 0)
+				uids.add((String)moleculeIndex.getValueAt(viewRow - distance, 1));
+		}
+		moleculeLoader.prefetch(uids);
 	}
 
+	/**
+	 * Updates the panel after the archive was changed.
+	 */
 	public void updateAll() {
+		moleculeSearch.invalidate();
+		if (!moleculeSearchField.getText().trim().isEmpty())
+			searchTimer.restart();
+		
+		// records that were cached or are still loading may be outdated
+		moleculeLoader.invalidate();
+		loadRequest++;
+		
 		if (archive.getNumberOfMolecules() == 0) {
 			System.out.println("No molecules found");
 			molecule = DummyMolecule;
 			notes.setEditable(false);
-		} else if (archive.get(molecule.getUID()) == null) {
-			molecule = archive.get(0);
-			notes.setEditable(true);
 		} else {
 			//Need to reload the current molecule if
 			//working in virtual storage
@@ -822,16 +875,28 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 			//The new values are loaded 
 			//this prevents overwriting when switching records
 			//in the window..
-			molecule = archive.get(molecule.getUID());
+			Molecule stored = archive.get(molecule.getUID());
+			molecule = (stored != null) ? stored : archive.get(0);
 			notes.setEditable(true);
 		}
-		moleculeRecordChanged = false;
-		
-		//Update DataTable
-		DataTableModel.fireTableStructureChanged();
-		resizeColumnWidth(DataTable);
-		for (int i = 0; i < DataTable.getColumnCount(); i++)
-			DataTable.getColumnModel().getColumn(i).sizeWidthToFit();
+		showMolecule();
+	}
+	
+	/**
+	 * Stops loading and writes records that are still pending.
+	 */
+	public void shutdown() {
+		moleculeLoader.shutdown();
+		searchExecutor.shutdownNow();
+	}
+	
+	private void showMolecule() {
+		//Update DataTable, widths are only reset if the columns changed
+		if (DataTableModel.setTable(molecule.getDataTable())) {
+			resizeColumnWidth(DataTable);
+			for (int i = 0; i < DataTable.getColumnCount(); i++)
+				DataTable.getColumnModel().getColumn(i).sizeWidthToFit();
+		}
 		
 		recordCount.setText(moleculeSorter.getViewRowCount() + " molecules");
 		recordCount.repaint();
@@ -847,8 +912,6 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		
 		//Update Parameter list
 		ParameterTableModel.fireTableDataChanged();
-		ParameterTable.getColumnModel().getColumn(0).setMinWidth(125);
-		ParameterTable.getColumnModel().getColumn(1).setCellRenderer( new DecimalFormatRenderer() );
 		
 		//Update TagList
 		TagTableModel.fireTableDataChanged();
@@ -856,60 +919,98 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		
 		notes.setText(molecule.getNotes());
 		
-		int selectedTab = dataANDPlot.getSelectedIndex();
-		dataANDPlot.removeAll();
+		//setText is reported as an edit of the notes
+		moleculeChanges = 0;
 		
+		//The plot and DataTable tabs stay, setMolecule also replots
 		if (multiPlot) {
-			for (PlotPanel plotPane : multiPlots) {
+			for (PlotPanel plotPane : multiPlots)
 				plotPane.setMolecule(molecule);
-				plotPane.showPlot();
-			}
-			dataANDPlot.addTab("Plot", multiPlotPane);
 		} else if (plotPanel != null) {
 			plotPanel.setMolecule(molecule);
-			plotPanel.showPlot();
-			dataANDPlot.addTab("Plot", plotPanel);
-		}
-
-		dataANDPlot.addTab("DataTable", tablePane);
-		
-		if (molecule.getSegmentTableNames().size() > 0) {
-			for (ArrayList<String> tableColumnNames :molecule.getSegmentTableNames()) {
-				JScrollPane segmentTablePane = buildSegmentsTable(molecule.getSegmentsTable(tableColumnNames));
-				dataANDPlot.addTab(tableColumnNames.get(1) + " vs " + tableColumnNames.get(0), segmentTablePane);
-			}
 		}
 		
-		if (selectedTab < dataANDPlot.getTabCount())
-			dataANDPlot.setSelectedIndex(selectedTab);
+		updateSegmentTabs();
 		
 		if (bdvFrame != null)
 			bdvFrame.setMolecule(molecule);
 	}
 	
 	private void filterMoleculeIndex() {
-		RowFilter<Object, Object> rf = null;
-		List<RowFilter<Object,Object>> rfs = new ArrayList<RowFilter<Object,Object>>();
-
-        try {
-        	String searchString = moleculeSearchField.getText();
-        	String[] searchlist = searchString.split(",");
-        	
-        	for (int i=0; i<searchlist.length; i++) {
-                //rfs.add(RowFilter.regexFilter("(?=.*?(" + searchlist[i].trim() + "))"));
-        		rfs.add(RowFilter.regexFilter(searchlist[i].trim()));
-            }
-
-            rf = RowFilter.andFilter(rfs);
-        } catch (java.util.regex.PatternSyntaxException e) {
-        	System.out.println("error " + e.getMessage());
-            return;
-        }
-        moleculeSorter.setRowFilter(rf);
-        recordCount.setText(moleculeSorter.getViewRowCount() + " molecules");
-        recordCount.repaint();
-        moleculeIndex.updateUI();
-    }
+		String searchString = moleculeSearchField.getText();
+		int request = ++searchRequest;
+		
+		searchExecutor.submit(() -> {
+			BitSet rows;
+			try {
+				rows = searchMolecules(searchString);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				SwingUtilities.invokeLater(() -> {
+					if (request == searchRequest)
+						JOptionPane.showMessageDialog(this, String.format("could not search molecules : %s", e.getMessage()), "Exception", JOptionPane.ERROR_MESSAGE);
+				});
+				return;
+			}
+			
+			SwingUtilities.invokeLater(() -> {
+				// only the latest search is shown
+				if (request != searchRequest)
+					return;
+				
+				if (rows == null) {
+					moleculeSorter.setRowFilter(null);
+				} else {
+					moleculeSorter.setRowFilter(new RowFilter<AbstractTableModel, Integer>() {
+						@Override
+						public boolean include(Entry<? extends AbstractTableModel, ? extends Integer> entry) {
+							return rows.get(entry.getIdentifier());
+						}
+					});
+				}
+				recordCount.setText(moleculeSorter.getViewRowCount() + " molecules");
+				recordCount.repaint();
+			});
+		});
+	}
+	
+	//The archive may change while the index is built, then the search is tried once more with a new index
+	private BitSet searchMolecules(String searchString) {
+		try {
+			return moleculeSearch.search(searchString);
+		} catch (RuntimeException e) {
+			moleculeSearch.invalidate();
+			return moleculeSearch.search(searchString);
+		}
+	}
+	
+	//Removes tabs of segment tables the molecule doesn't have, shows the tables
+	//of the molecule in the remaining ones and adds tabs for new tables
+	private void updateSegmentTabs() {
+		Set<ArrayList<String>> segmentTableNames = molecule.getSegmentTableNames();
+		
+		Iterator<Map.Entry<ArrayList<String>, JScrollPane>> iterator = segmentTabs.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<ArrayList<String>, JScrollPane> entry = iterator.next();
+			if (!segmentTableNames.contains(entry.getKey())) {
+				dataANDPlot.remove(entry.getValue());
+				iterator.remove();
+			}
+		}
+		
+		for (ArrayList<String> tableColumnNames : segmentTableNames) {
+			JScrollPane segmentTablePane = segmentTabs.get(tableColumnNames);
+			if (segmentTablePane == null) {
+				segmentTablePane = buildSegmentsTable(molecule.getSegmentsTable(tableColumnNames));
+				dataANDPlot.addTab(tableColumnNames.get(1) + " vs " + tableColumnNames.get(0), segmentTablePane);
+				segmentTabs.put(tableColumnNames, segmentTablePane);
+			} else {
+				JTable segTable = (JTable)segmentTablePane.getViewport().getView();
+				if (((MarsTableModel)segTable.getModel()).setTable(molecule.getSegmentsTable(tableColumnNames)))
+					resizeColumnWidth(segTable);
+			}
+		}
+	}
 	
 	public void updateParameterList() {
 		ParameterList = new String[molecule.getParameters().keySet().size()];
@@ -926,18 +1027,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	}
 	
 	public void resizeColumnWidth(JTable table) {
-	    final TableColumnModel columnModel = table.getColumnModel();
-	    for (int column = 0; column < table.getColumnCount(); column++) {
-	        int width = 15; // Min width
-	        for (int row = 0; row < table.getRowCount(); row++) {
-	            TableCellRenderer renderer = table.getCellRenderer(row, column);
-	            Component comp = table.prepareRenderer(renderer, row, column);
-	            width = Math.max(comp.getPreferredSize().width +1 , width);
-	        }
-	        if(width > 300)
-	            width=300;
-	        columnModel.getColumn(column).setPreferredWidth(width);
-	    }
+		columnWidths.resize(table);
 	}
 	
 
@@ -965,7 +1055,7 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 	    }
 	    public void actionPerformed(ActionEvent e) {
 	        molecule.addTag(name);
-	        moleculeRecordChanged = true;
+	        moleculeChanges |= TAGS;
 	        updateTagList();
 			TagTableModel.fireTableDataChanged();
 	    }
@@ -991,7 +1081,8 @@ public class MoleculePanel extends JPanel implements BoundsChangedListener, Mole
 		updateParameterList();
 		updateTagList();
 		
-		moleculeRecordChanged = true;
+		//Plots don't report which part of the molecule changed
+		moleculeChanges |= DATA | PARAMETERS | TAGS;
 		
 		//Update Parameter list
 		ParameterTableModel.fireTableStructureChanged();
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Buffered writer for delimiter separated text such as csv and tsv files. Numbers are
+ * written without String.format and always with a '.' as decimal separator, whatever
+ * the default locale is. Doubles are written like "%f" does, with six decimals, or
+ * like Double.toString with writeExactField.
+ */
+public class DelimitedTextWriter implements Closeable, Flushable {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	//Below this magnitude the digits can be taken from the value scaled by 10^6
+	private static final double FAST_LIMIT = 1e6;
+	private static final long DECIMALS = 1000000;
+	
+	private final Writer out;
+	private final char delimiter;
+	private final String lineSeparator;
+	
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position = 0;
+	private boolean firstField = true;
+	
+	public DelimitedTextWriter(Writer out, char delimiter, String lineSeparator) {
+		this.out = out;
+		this.delimiter = delimiter;
+		this.lineSeparator = lineSeparator;
+	}
+	
+	public DelimitedTextWriter writeField(String value) throws IOException {
+		startField();
+		write(value);
+		return this;
+	}
+	
+	public DelimitedTextWriter writeField(long value) throws IOException {
+		startField();
+		writeLong(value);
+		return this;
+	}
+	
+	public DelimitedTextWriter writeField(double value) throws IOException {
+		startField();
+		writeFixed(value);
+		return this;
+	}
+	
+	/**
+	 * Writes the value like Double.toString does, so it can be read back without
+	 * losing precision.
+	 */
+	public DelimitedTextWriter writeExactField(double value) throws IOException {
+		startField();
+		// whole numbers such as frames and slices are the most common values in tables
+		if (value == (long)value && Math.abs(value) < 1e7 && (value != 0 || 1 / value > 0)) {
+			writeLong((long)value);
+			put('.');
+			put('0');
+		} else {
+			write(Double.toString(value));
+		}
+		return this;
+	}
+	
+	public void endRow() throws IOException {
+		write(lineSeparator);
+		firstField = true;
+	}
+	
+	private void startField() throws IOException {
+		if (!firstField)
+			put(delimiter);
+		firstField = false;
+	}
+	
+	private void writeFixed(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			write(Double.toString(value));
+			return;
+		}
+		
+		// "%f" keeps the sign of negative values that round to zero
+		boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+		double magnitude = Math.abs(value);
+		
+		if (magnitude < FAST_LIMIT) {
+			double scaled = magnitude * DECIMALS;
+			double floor = Math.floor(scaled);
+			double fraction = scaled - floor;
+			
+			// close to a tie the rounding error of scaled could change the result
+			if (Math.abs(fraction - 0.5) > 1e-3) {
+				long units = (long)floor + (fraction > 0.5 ? 1 : 0);
+				if (negative)
+					put('-');
+				writeLong(units / DECIMALS);
+				put('.');
+				long decimals = units % DECIMALS;
+				for (long digit = DECIMALS / 10; digit > 0; digit /= 10) {
+					put((char)('0' + decimals / digit));
+					decimals %= digit;
+				}
+				return;
+			}
+		}
+		
+		// same rounding as Formatter
+		String text = new BigDecimal(Double.toString(magnitude)).setScale(6, RoundingMode.HALF_UP).toPlainString();
+		if (negative)
+			put('-');
+		write(text);
+	}
+	
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			write(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			put('-');
+			value = -value;
+		}
+		if (position + 19 > buffer.length)
+			flushBuffer();
+		
+		int start = position;
+		do {
+			buffer[position++] = (char)('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		
+		// digits were added in reverse
+		for (int i = start, j = position - 1; i < j; i++, j--) {
+			char c = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = c;
+		}
+	}
+	
+	private void put(char c) throws IOException {
+		if (position == buffer.length)
+			flushBuffer();
+		buffer[position++] = c;
+	}
+	
+	private void write(String s) throws IOException {
+		if (s.length() > buffer.length - position) {
+			flushBuffer();
+			if (s.length() > buffer.length) {
+				out.write(s);
+				return;
+			}
+		}
+		s.getChars(0, s.length(), buffer, position);
+		position += s.length();
+	}
+	
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		flushBuffer();
+		out.close();
+	}
+}
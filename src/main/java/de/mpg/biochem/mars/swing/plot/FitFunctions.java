@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+import java.text.ParseException;
+
+/**
+ * Fit functions offered by the curve fitter. The built-in models supply
+ * analytic derivatives when given their own number of parameters, any other 
+ * expression is compiled with MathExpression and differentiated numerically 
+ * by the fitter.
+ */
+public class FitFunctions {
+
+	public static final String LINEAR = "a+b*x";
+	public static final String GAUSSIAN = "a*exp(-pow(x-b,2)/(2*pow(c,2)))";
+	public static final String EXPONENTIAL_DECAY = "a*exp(-x/b)";
+
+	/**
+	 * @return the built-in model matching the expression, a compiled expression
+	 * otherwise or null if the expression could not be compiled.
+	 * @throws ParseException if the function doesn't use exactly parameterCount parameters.
+	 */
+	public static LMFunction forExpression(String expression, int parameterCount) throws ParseException {
+		String normalized = expression.replaceAll("\\s", "");
+
+		if (normalized.equals(LINEAR))
+			return checkParameterCount(new Linear(), 2, parameterCount);
+		else if (normalized.equals(GAUSSIAN))
+			return checkParameterCount(new Gaussian(), 3, parameterCount);
+		else if (normalized.equals(EXPONENTIAL_DECAY))
+			return checkParameterCount(new ExponentialDecay(), 2, parameterCount);
+
+		MathExpression compiled;
+		try {
+			compiled = MathExpression.parseFitFunction(expression);
+		} catch (ParseException e) {
+			return null;
+		}
+		return checkParameterCount(new Expression(compiled), compiled.getVariableCount(), parameterCount);
+	}
+	
+	private static LMFunction checkParameterCount(LMFunction function, int used, int given) throws ParseException {
+		if (used != given)
+			throw new ParseException(String.format("The function has %d parameters but %d initial values were given.", used, given), 0);
+		return function;
+	}
+
+	static class Expression implements LMFunction {
+		private final MathExpression expression;
+
+		Expression(MathExpression expression) {
+			this.expression = expression;
+		}
+
+		@Override
+		public double getValue(double[] x, double[] parameters) {
+			return expression.evaluate(x[0], parameters);
+		}
+
+		@Override
+		public void evaluate(double[] xs, double[] parameters, double[] out) {
+			for (int i = 0; i < xs.length; i++)
+				out[i] = expression.evaluate(xs[i], parameters);
+		}
+	}
+
+	//a+b*x
+	static class Linear implements LMFunction {
+		@Override
+		public double getValue(double[] x, double[] p) {
+			return p[0] + p[1] * x[0];
+		}
+
+		@Override
+		public void evaluate(double[] xs, double[] p, double[] out) {
+			for (int i = 0; i < xs.length; i++)
+				out[i] = p[0] + p[1] * xs[i];
+		}
+
+		@Override
+		public boolean evaluateDerivatives(double[] xs, double[] p, double[] jacobian) {
+			if (p.length != 2)
+				return false;
+			
+			for (int i = 0; i < xs.length; i++) {
+				jacobian[i * p.length] = 1;
+				jacobian[i * p.length + 1] = xs[i];
+			}
+			return true;
+		}
+	}
+
+	//a*exp(-pow(x-b,2)/(2*pow(c,2)))
+	static class Gaussian implements LMFunction {
+		@Override
+		public double getValue(double[] x, double[] p) {
+			double dx = x[0] - p[1];
+			return p[0] * Math.exp(-dx * dx / (2 * p[2] * p[2]));
+		}
+
+		@Override
+		public void evaluate(double[] xs, double[] p, double[] out) {
+			double twoC2 = 2 * p[2] * p[2];
+			for (int i = 0; i < xs.length; i++) {
+				double dx = xs[i] - p[1];
+				out[i] = p[0] * Math.exp(-dx * dx / twoC2);
+			}
+		}
+
+		@Override
+		public boolean evaluateDerivatives(double[] xs, double[] p, double[] jacobian) {
+			if (p.length != 3)
+				return false;
+			
+			double c2 = p[2] * p[2];
+			double c3 = c2 * p[2];
+			for (int i = 0; i < xs.length; i++) {
+				double dx = xs[i] - p[1];
+				double e = Math.exp(-dx * dx / (2 * c2));
+				jacobian[i * p.length] = e;
+				jacobian[i * p.length + 1] = p[0] * e * dx / c2;
+				jacobian[i * p.length + 2] = p[0] * e * dx * dx / c3;
+			}
+			return true;
+		}
+	}
+
+	//a*exp(-x/b)
+	static class ExponentialDecay implements LMFunction {
+		@Override
+		public double getValue(double[] x, double[] p) {
+			return p[0] * Math.exp(-x[0] / p[1]);
+		}
+
+		@Override
+		public void evaluate(double[] xs, double[] p, double[] out) {
+			for (int i = 0; i < xs.length; i++)
+				out[i] = p[0] * Math.exp(-xs[i] / p[1]);
+		}
+
+		@Override
+		public boolean evaluateDerivatives(double[] xs, double[] p, double[] jacobian) {
+			if (p.length != 2)
+				return false;
+			
+			double b2 = p[1] * p[1];
+			for (int i = 0; i < xs.length; i++) {
+				double e = Math.exp(-xs[i] / p[1]);
+				jacobian[i * p.length] = e;
+				jacobian[i * p.length + 1] = p[0] * e * xs[i] / b2;
+			}
+			return true;
+		}
+	}
+}
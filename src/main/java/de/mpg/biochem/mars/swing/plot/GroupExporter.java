@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.awt.Component;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+
+import ij.IJ;
+
+/**
+ * Saves the plot of every group of a ResultsPlotter as png file. Plots are painted 
+ * by one Plot per thread on all cores and encoded on a smaller pool. At most a few 
+ * images per render thread are held in memory, rendering waits while the encoders 
+ * catch up. Files are named like those saved one at a time: path + group number + ".png".
+ * Groups without any valid points are skipped. If some of the files exist, the user 
+ * is asked once whether to overwrite or skip them.
+ */
+class GroupExporter {
+	
+	//Painted images waiting to be written, per render thread
+	private static final int IMAGES_PER_THREAD = 2;
+	
+	private final List<PlotData> plotData;
+	private final String groupColumn;
+	private final int width, height;
+	private final String xAxisLabel, yAxisLabel;
+	
+	//Bounds for all plots, null to fit each group
+	private final Rectangle2D.Double fixedBounds;
+	
+	private final AtomicBoolean canceled = new AtomicBoolean(false);
+	private final AtomicInteger written = new AtomicInteger();
+	private final AtomicReference<IOException> error = new AtomicReference<IOException>();
+	
+	private boolean skipExisting = false;
+	
+	GroupExporter(List<PlotData> plotData, String groupColumn, Plot plot, boolean fixBounds) {
+		this.plotData = plotData;
+		this.groupColumn = groupColumn;
+		this.width = (plot.getWidth() > 0) ? plot.getWidth() : 800;
+		this.height = (plot.getHeight() > 0) ? plot.getHeight() : 600;
+		this.xAxisLabel = plotData.get(0).xColumnName();
+		this.yAxisLabel = plotData.get(0).yColumnName();
+		this.fixedBounds = fixBounds ? plot.getPlotBounds() : null;
+	}
+	
+	void run(Component parent, File path) {
+		int groupCount = plotData.get(0).numberGroups();
+		int renderThreads = Runtime.getRuntime().availableProcessors();
+		int encodeThreads = Math.max(1, renderThreads / 2);
+		
+		int existing = 0;
+		for (int group = 0; group < groupCount; group++)
+			if (file(path, group).exists())
+				existing++;
+		
+		if (existing > 0) {
+			int answer = JOptionPane.showConfirmDialog(parent, String.format("%d of %d files exist already. Overwrite them? Choose No to skip them.", existing, groupCount), 
+					"Export plots", JOptionPane.YES_NO_CANCEL_OPTION);
+			if (answer == JOptionPane.CANCEL_OPTION || answer == JOptionPane.CLOSED_OPTION)
+				return;
+			skipExisting = (answer == JOptionPane.NO_OPTION);
+		}
+		
+		// Plots are created here on the event dispatch thread and then each used by one render thread
+		Plot[] plots = new Plot[renderThreads];
+		for (int i = 0; i < renderThreads; i++) {
+			plots[i] = new Plot();
+			plots[i].setSize(width, height);
+			plots[i].setShowTracker(false);
+			plots[i].setxAxisLabel(xAxisLabel);
+			plots[i].setyAxisLabel(yAxisLabel);
+		}
+		
+		ProgressMonitor progressMonitor = new ProgressMonitor(parent, "Exporting " + groupCount + " plots", "", 0, 100);
+		long start = System.nanoTime();
+		
+		SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws Exception {
+				Semaphore inFlight = new Semaphore(renderThreads * IMAGES_PER_THREAD);
+				ExecutorService encoders = new ThreadPoolExecutor(encodeThreads, encodeThreads, 0, TimeUnit.MILLISECONDS, 
+						new ArrayBlockingQueue<Runnable>(renderThreads * IMAGES_PER_THREAD));
+				
+				AtomicInteger nextGroup = new AtomicInteger();
+				Thread[] renderers = new Thread[renderThreads];
+				for (int t = 0; t < renderThreads; t++) {
+					Plot plot = plots[t];
+					renderers[t] = new Thread(() -> {
+						for (int group = nextGroup.getAndIncrement(); group < groupCount && !canceled.get(); group = nextGroup.getAndIncrement()) {
+							try {
+								inFlight.acquire();
+							} catch (InterruptedException e) {
+								return;
+							}
+							
+							File file = file(path, group);
+							BufferedImage image = (skipExisting && file.exists()) ? null : paint(plot, group);
+							if (image == null) {
+								inFlight.release();
+								continue;
+							}
+							
+							// never rejected since the queue holds as many tasks as there are permits
+							encoders.execute(() -> {
+								try {
+									if (!canceled.get()) {
+										ImageIO.write(image, "png", file);
+										written.incrementAndGet();
+									}
+								} catch (IOException e) {
+									error.compareAndSet(null, e);
+									canceled.set(true);
+								} finally {
+									inFlight.release();
+								}
+							});
+						}
+					}, "ResultsPlotter export " + t);
+					renderers[t].start();
+				}
+				
+				try {
+					while (!allFinished(renderers)) {
+						Thread.sleep(200);
+						setProgress(Math.min(100, 100 * written.get() / groupCount));
+					}
+				} finally {
+					encoders.shutdown();
+					encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				}
+				setProgress(100);
+				return null;
+			}
+			
+			@Override
+			protected void done() {
+				progressMonitor.close();
+				try {
+					get();
+				} catch (InterruptedException | ExecutionException e) {
+					e.printStackTrace();
+				}
+				
+				double seconds = (System.nanoTime() - start) / 1e9;
+				IJ.log(String.format("ResultsPlotter: exported %d of %d plots in %.1f s (%.1f plots/s)%s", written.get(), groupCount, 
+						seconds, written.get() / seconds, canceled.get() ? " (canceled)" : ""));
+				if (error.get() != null)
+					IJ.log("ResultsPlotter: could not export plots : " + error.get().getMessage());
+			}
+		};
+		
+		worker.addPropertyChangeListener(event -> {
+			if ("progress".equals(event.getPropertyName())) {
+				progressMonitor.setProgress((Integer) event.getNewValue());
+				double seconds = (System.nanoTime() - start) / 1e9;
+				progressMonitor.setNote(String.format("%d of %d, %.1f plots/s", written.get(), groupCount, written.get() / seconds));
+			}
+			if (progressMonitor.isCanceled())
+				canceled.set(true);
+		});
+		
+		worker.execute();
+	}
+	
+	private static boolean allFinished(Thread[] threads) {
+		for (Thread thread : threads)
+			if (thread.isAlive())
+				return false;
+		return true;
+	}
+	
+	private File file(File path, int group) {
+		return new File(path.getPath() + plotData.get(0).getGroupNumber(group) + ".png");
+	}
+	
+	private BufferedImage paint(Plot plot, int group) {
+		plot.clear();
+		plot.setGroup(groupColumn, plotData.get(0).getGroupNumber(group));
+		
+		for (PlotData data : plotData) {
+			Series series = data.createSeries(group);
+			if (series != null)
+				plot.addSeries(series);
+		}
+		
+		// nothing to plot
+		if (plot.getSeriesCount() == 0)
+			return null;
+		
+		if (fixedBounds != null)
+			plot.setBounds(fixedBounds.x, fixedBounds.y, fixedBounds.width, fixedBounds.height);
+		else
+			plot.resetBounds();
+		
+		// the plot is reused, its margins still fit the tick labels of the previous group
+		plot.invalidateMargins();
+		
+		plot.setCaption(String.format("%s = %d", groupColumn, plotData.get(0).getGroupNumber(group)));
+		
+		return plot.paintImage();
+	}
+}
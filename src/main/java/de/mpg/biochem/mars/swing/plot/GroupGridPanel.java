@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+import javax.swing.JPanel;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows the groups of a ResultsPlotter as a grid of small plots. Only the tiles in 
+ * view are rendered. They are painted into images on a pool of background threads, 
+ * with lines reduced to a few points per pixel column, and the most recent ones are 
+ * kept for scrolling back. Clicking a tile passes its group to the listener.
+ */
+class GroupGridPanel extends JPanel implements Scrollable {
+	private static final long serialVersionUID = 1L;
+	
+	private static final int TILE_WIDTH = 200;
+	private static final int TILE_HEIGHT = 140;
+	private static final int GAP = 4;
+	private static final int CACHE_SIZE = 256;
+	
+	private final List<PlotData> plotData;
+	private final String groupColumn;
+	private final int groupCount;
+	
+	private final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+		Thread thread = new Thread(runnable, "ResultsPlotter grid");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	//Rendered tiles by group, only used on the event dispatch thread
+	private final LinkedHashMap<Integer, BufferedImage> tiles = new LinkedHashMap<Integer, BufferedImage>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	private final HashSet<Integer> pending = new HashSet<Integer>();
+	
+	//Groups in view, tiles scrolled out of view before their turn are skipped
+	private volatile int firstVisible, lastVisible;
+	
+	GroupGridPanel(List<PlotData> plotData, String groupColumn, IntConsumer onSelect) {
+		this.plotData = plotData;
+		this.groupColumn = groupColumn;
+		this.groupCount = plotData.get(0).numberGroups();
+		
+		setBackground(Color.WHITE);
+		addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int group = groupAt(e.getX(), e.getY());
+				if (group != -1)
+					onSelect.accept(group);
+			}
+		});
+	}
+	
+	private int columns() {
+		return Math.max(1, getWidth() / TILE_WIDTH);
+	}
+	
+	private int groupAt(int x, int y) {
+		int column = x / TILE_WIDTH;
+		if (column >= columns())
+			return -1;
+		int group = (y / TILE_HEIGHT) * columns() + column;
+		return (group < groupCount) ? group : -1;
+	}
+	
+	private Rectangle tileBounds(int group) {
+		return new Rectangle((group % columns()) * TILE_WIDTH, (group / columns()) * TILE_HEIGHT, TILE_WIDTH, TILE_HEIGHT);
+	}
+	
+	/**
+	 * Scrolls the tile of the group into view.
+	 */
+	void showGroup(int group) {
+		scrollRectToVisible(tileBounds(group));
+	}
+	
+	@Override
+	public Dimension getPreferredSize() {
+		int columns = Math.max(1, (getParent() != null ? getParent().getWidth() : getWidth()) / TILE_WIDTH);
+		return new Dimension(columns * TILE_WIDTH, ((groupCount + columns - 1) / columns) * TILE_HEIGHT);
+	}
+	
+	@Override
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		
+		int columns = columns();
+		int firstRow = Math.max(0, clip.y / TILE_HEIGHT);
+		int lastRow = (clip.y + clip.height - 1) / TILE_HEIGHT;
+		
+		// the whole viewport counts as visible, not only the repainted part
+		Rectangle visible = getVisibleRect();
+		firstVisible = (visible.y / TILE_HEIGHT) * columns;
+		lastVisible = ((visible.y + visible.height - 1) / TILE_HEIGHT + 1) * columns - 1;
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = 0; column < columns; column++) {
+				int group = row * columns + column;
+				if (group >= groupCount)
+					return;
+				
+				int x = column * TILE_WIDTH + GAP;
+				int y = row * TILE_HEIGHT + GAP;
+				
+				BufferedImage tile = tiles.get(group);
+				if (tile != null) {
+					g.drawImage(tile, x, y, null);
+				} else {
+					g.setColor(Color.LIGHT_GRAY);
+					g.drawRect(x, y, TILE_WIDTH - 2 * GAP - 1, TILE_HEIGHT - 2 * GAP - 1);
+					requestTile(group);
+				}
+			}
+		}
+	}
+	
+	private void requestTile(int group) {
+		if (!pending.add(group))
+			return;
+		
+		executor.execute(() -> {
+			BufferedImage tile = (group >= firstVisible && group <= lastVisible) ? renderTile(group) : null;
+			
+			SwingUtilities.invokeLater(() -> {
+				pending.remove(group);
+				if (tile != null)
+					tiles.put(group, tile);
+				
+				// also when it was skipped but scrolled back into view in the meantime
+				if (tile != null || (group >= firstVisible && group <= lastVisible))
+					repaint(tileBounds(group));
+			});
+		});
+	}
+	
+	private BufferedImage renderTile(int group) {
+		int width = TILE_WIDTH - 2 * GAP;
+		int height = TILE_HEIGHT - 2 * GAP;
+		
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = image.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, width, height);
+		g2d.setColor(Color.LIGHT_GRAY);
+		g2d.drawRect(0, 0, width - 1, height - 1);
+		
+		g2d.setColor(Color.BLACK);
+		g2d.drawString(String.format("%s = %d", groupColumn, plotData.get(0).getGroupNumber(group)), 4, 12);
+		
+		List<Series> series = new ArrayList<Series>();
+		Rectangle2D.Double bounds = null;
+		for (PlotData data : plotData) {
+			Series s = data.createSeries(group);
+			if (s == null || s.getBounds() == null)
+				continue;
+			series.add(s);
+			if (bounds == null)
+				bounds = (Rectangle2D.Double)s.getBounds().clone();
+			else
+				bounds.add(s.getBounds());
+		}
+		
+		if (bounds != null) {
+			if (bounds.width == 0)
+				bounds.setRect(bounds.x - 0.5, bounds.y, 1, bounds.height);
+			if (bounds.height == 0)
+				bounds.setRect(bounds.x, bounds.y - 0.5, bounds.width, 1);
+			
+			int left = 4;
+			int top = 16;
+			int plotWidth = width - left - 4;
+			int plotHeight = height - top - 4;
+			
+			AffineTransform transform = new AffineTransform();
+			transform.translate(left, top + plotHeight);
+			transform.scale(plotWidth / bounds.width, -plotHeight / bounds.height);
+			transform.translate(-bounds.x, -bounds.y);
+			
+			g2d.clipRect(1, 1, width - 2, height - 2);
+			g2d.setStroke(new BasicStroke(1.0f));
+			for (Series s : series)
+				paintSeries(g2d, s, transform, left, left + plotWidth);
+		}
+		
+		g2d.dispose();
+		return image;
+	}
+	
+	private static void paintSeries(Graphics2D g2d, Series s, AffineTransform transform, int from, int to) {
+		double scaleX = transform.getScaleX();
+		double translateX = transform.getTranslateX();
+		double scaleY = transform.getScaleY();
+		double translateY = transform.getTranslateY();
+		
+		g2d.setColor(s.color);
+		
+		switch (s.type) {
+		case LINE:
+		case FIT:
+			s.decimator.update(scaleX, translateX, from, to);
+			double[] points = s.decimator.getPoints();
+			for (int j = 2; j < s.decimator.getCount() * 2; j += 2)
+				g2d.drawLine((int)(points[j - 2] * scaleX + translateX), (int)(points[j - 1] * scaleY + translateY), 
+						(int)(points[j] * scaleX + translateX), (int)(points[j + 1] * scaleY + translateY));
+			break;
+		case SCATTER:
+			for (int i = s.nextValid(0); i < s.length(); i = s.nextValid(i + 1))
+				g2d.fillRect((int)(s.x(i) * scaleX + translateX), (int)(s.y(i) * scaleY + translateY), 1, 1);
+			break;
+		case BAR:
+			double barWidth = Math.abs(s.binWidth() * scaleX);
+			for (int i = s.nextValid(0); i < s.length(); i = s.nextValid(i + 1)) {
+				double px = s.x(i) * scaleX + translateX;
+				double py = s.y(i) * scaleY + translateY;
+				g2d.fill(new Rectangle2D.Double(px - barWidth / 2, Math.min(py, translateY), barWidth, Math.abs(translateY - py)));
+			}
+			break;
+		case SEGMENTS:
+			break;
+		}
+	}
+	
+	void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+	
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return (orientation == SwingConstants.VERTICAL) ? TILE_HEIGHT / 4 : TILE_WIDTH / 4;
+	}
+	
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return (orientation == SwingConstants.VERTICAL) ? visibleRect.height : visibleRect.width;
+	}
+	
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return true;
+	}
+	
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Prepares the curves of the groups around the one shown by ResultsPlotter on a 
+ * background thread, so browsing with next and previous doesn't have to wait for 
+ * them. Prepared groups are kept in a small least recently used cache. Cached curves
+ * get the style of new ones whenever they are handed out, so edits made in the plot 
+ * properties last as long as the group is shown, whether it was cached or not.
+ * 
+ * Only to be used from the event dispatch thread.
+ */
+class GroupNavigator {
+	
+	//Groups prepared on either side of the current one
+	private static final int PREFETCH = 4;
+	private static final int CACHE_SIZE = 4 * PREFETCH + 1;
+	
+	private final List<PlotData> plotData;
+	private final int groupCount;
+	
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "ResultsPlotter prefetch");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final LinkedHashMap<Integer, FutureTask<Series[]>> cache = new LinkedHashMap<Integer, FutureTask<Series[]>>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, FutureTask<Series[]>> eldest) {
+			if (size() <= CACHE_SIZE)
+				return false;
+			eldest.getValue().cancel(false);
+			return true;
+		}
+	};
+	
+	GroupNavigator(List<PlotData> plotData) {
+		this.plotData = plotData;
+		this.groupCount = plotData.get(0).hasGroups() ? plotData.get(0).numberGroups() : 1;
+	}
+	
+	/**
+	 * @return the curves of the group, prepared right away unless that was already done 
+	 * in the background. Afterwards the groups around it are queued for preparation.
+	 */
+	List<Series> getSeries(int group) {
+		FutureTask<Series[]> task = task(group);
+		
+		// runs the task here unless the background thread already started it
+		task.run();
+		
+		List<Series> series = new ArrayList<Series>();
+		try {
+			Series[] prepared = task.get();
+			for (int i = 0; i < prepared.length; i++) {
+				if (prepared[i] != null) {
+					plotData.get(i).resetStyle(prepared[i]);
+					series.add(prepared[i]);
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			cache.remove(group);
+		}
+		
+		for (int distance = 1; distance <= PREFETCH; distance++) {
+			prefetch(group + distance);
+			prefetch(group - distance);
+		}
+		
+		return series;
+	}
+	
+	private void prefetch(int group) {
+		if (group < 0 || group >= groupCount || cache.containsKey(group))
+			return;
+		executor.execute(task(group));
+	}
+	
+	private FutureTask<Series[]> task(int group) {
+		FutureTask<Series[]> task = cache.get(group);
+		if (task == null || task.isCancelled()) {
+			// one entry for each PlotData, null where it has no curve
+			task = new FutureTask<Series[]>(() -> {
+				Series[] series = new Series[plotData.size()];
+				for (int i = 0; i < series.length; i++)
+					series[i] = plotData.get(i).createSeries(group);
+				return series;
+			});
+			cache.put(group, task);
+		}
+		return task;
+	}
+	
+	void shutdown() {
+		executor.shutdownNow();
+		cache.clear();
+	}
+}
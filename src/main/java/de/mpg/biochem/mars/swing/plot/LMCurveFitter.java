@@ -29,18 +29,22 @@ package de.mpg.biochem.mars.swing.plot;
 import java.awt.AWTEvent;
 import java.awt.Color;
 import java.awt.TextField;
+import java.text.ParseException;
+
+import javax.swing.JOptionPane;
 
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
 import ij.macro.Interpreter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Vector;
 
 public class LMCurveFitter implements LMFunction, DialogListener {
 	
 	private String[] functions = {"linear","gaussian","exponential decay","other"};
-	private String fitFunction = "a+b*x";
+	private String fitFunction = FitFunctions.LINEAR;
 	private String initialParameters = "1,1";
 	private GenericDialog dialog;
 	private double xfrom, xto;
@@ -55,7 +59,9 @@ public class LMCurveFitter implements LMFunction, DialogListener {
 	
 	private double[] x, y;
 	private Plot plot;
-
+	
+	//Only used to interpret fit functions with macro
+	//syntax that MathExpression doesn't support.
 	public double getValue(double[] x, double[] parameters) {
 		String macro = "";
 		
@@ -73,8 +79,9 @@ public class LMCurveFitter implements LMFunction, DialogListener {
 	public void fit(Plot plot) {
 		this.plot = plot;
 		dialog = new GenericDialog("Curve Fitter");
-		plotNames = new String[plot.plotNames.size()];
-		plotNames = plot.plotNames.toArray(plotNames);
+		plotNames = new String[plot.getSeriesCount()];
+		for (int i = 0; i < plotNames.length; i++)
+			plotNames[i] = plot.getSeriesName(i);
 		dialog.addChoice("Plot", plotNames, plotNames[0]);
 		
 		importData();
@@ -93,9 +100,33 @@ public class LMCurveFitter implements LMFunction, DialogListener {
 		if (dialog.wasCanceled())
 			return;
 		
+		// parse initial parameter values
+		String[] values = initialParameters.split(",");
+		double[] initial = new double[values.length];
+		
+		try {
+			for (int i = 0; i < values.length; i++)
+				initial[i] = Double.parseDouble(values[i].trim());
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(null, "The initial parameters " + initialParameters + " are not valid.", "Curve Fitter", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		
+		//Built-in models come with analytic derivatives, everything
+		//else is compiled once or falls back to the ImageJ macro interpreter
+		LMFunction function;
+		try {
+			function = FitFunctions.forExpression(fitFunction, initial.length);
+		} catch (ParseException e) {
+			JOptionPane.showMessageDialog(null, e.getMessage(), "Curve Fitter", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		if (function == null)
+			function = this;
+		
 		//find the index of the start and end points -- is there a better way??
 		int from = 0;
-		int to = x.length;
+		int to = x.length - 1;
 		for (int i=0; i < x.length ; i++) {
 			if (x[i] <= xfrom)
 				from = i;
@@ -105,43 +136,23 @@ public class LMCurveFitter implements LMFunction, DialogListener {
 		}
 		int n = to - from + 1;
 		
-		double[][] xValues = new double[n][1];
-		double[] yValues = new double[n];
-		double[] xPlotValues = new double[n];
-		
-		for (int i = 0; i < n; i++) {
-			xValues[i][0] = x[from + i];
-			yValues[i] = y[from + i];
-			xPlotValues[i] = x[from + i];
-		}
-		
-		// parse initial parameter values
-		String[] values = initialParameters.split(",");
-		double[] initial = new double[values.length];
-		
-		for (int i = 0; i < values.length; i++)
-			initial[i] = Double.parseDouble(values[i]);
+		double[] xValues = Arrays.copyOfRange(x, from, from + n);
+		double[] yValues = Arrays.copyOfRange(y, from, from + n);
 		
 		// do fit
-		LMplotfit lm = new LMplotfit(this, initial.length, precision, maxIterations);
+		LMplotfit lm = new LMplotfit(function, initial.length, precision, maxIterations);
 		double[] parameters = initial.clone();
 		double[] error = new double[parameters.length];
 		
-		lm.solve(parameters, null, xValues, yValues, null, 0.001, error);
-		
+		// just plot the initial parameters
+		if (!noFitting)
+			lm.solve(parameters, null, xValues, yValues, null, 0.001, error);
 		
 		// create fit plot
 		double[] yFit = new double[xValues.length];
+		function.evaluate(xValues, parameters, yFit);
 		
-		for (int i = 0; i < xValues.length; i++) {
-			if (noFitting) {
-				yFit[i] = getValue(xValues[i], initial);
-			} else {
-				yFit[i] = getValue(xValues[i], parameters);
-			}
-		}
-		
-		plot.addFitPlot(xPlotValues, yFit, Color.RED, 1, plot.plotNames.get(plotIndex));
+		plot.addFitPlot(xValues, yFit, Color.RED, 1, plotNames[plotIndex]);
 		
 		ArrayList<String> fitParameters = new ArrayList<String>();
 		
@@ -152,21 +163,12 @@ public class LMCurveFitter implements LMFunction, DialogListener {
 		
 		fitParameters.add(fitFunc);
 		
-		// calculating R^2
-		double mean = 0;
-		for (int i = 0; i < yValues.length; i++)
-			mean += yValues[i];
-		mean /= yValues.length;
-		
-		double sst = 0;
-		for (int i = 0; i < yValues.length; i++) {
-			double deviation = yValues[i] - mean;
-			sst += deviation * deviation;
+		if (noFitting) {
+			plot.setLegend(fitParameters);
+			return;
 		}
 		
-		double sse = lm.chiSquared;
-		
-		fitParameters.add(String.format("R^2=%.4g", (1.0 - (sse / (yValues.length - parameters.length)) / (sst / (yValues.length - 1)))));
+		fitParameters.add(String.format("R^2=%.4g", rSquared(yValues, lm.chiSquared, parameters.length)));
 		fitParameters.add(String.format("chi^2=%.4g ", lm.chiSquared));
 		
 		for (int i = 0; i < parameters.length; i++)
@@ -176,13 +178,28 @@ public class LMCurveFitter implements LMFunction, DialogListener {
 
 	}
 	
-	private void importData() {
-		x = new double[plot.plotCoordinates.get(plotIndex).length/2];
-		y = new double[plot.plotCoordinates.get(plotIndex).length/2];
-		for (int i=0; i<plot.plotCoordinates.get(plotIndex).length ; i+=2) {
-			x[i/2] = plot.plotCoordinates.get(plotIndex)[i];
-			y[i/2] = plot.plotCoordinates.get(plotIndex)[i + 1];
+	/**
+	 * Adjusted coefficient of determination of a fit with the given
+	 * sum of squared residuals.
+	 */
+	public static double rSquared(double[] y, double chiSquared, int nParameters) {
+		double mean = 0;
+		for (int i = 0; i < y.length; i++)
+			mean += y[i];
+		mean /= y.length;
+		
+		double sst = 0;
+		for (int i = 0; i < y.length; i++) {
+			double deviation = y[i] - mean;
+			sst += deviation * deviation;
 		}
+		
+		return 1.0 - (chiSquared / (y.length - nParameters)) / (sst / (y.length - 1));
+	}
+	
+	private void importData() {
+		x = plot.getSeriesX(plotIndex);
+		y = plot.getSeriesY(plotIndex);
 	}
 	
 	@Override
@@ -208,13 +225,13 @@ public class LMCurveFitter implements LMFunction, DialogListener {
 			Vector textboxes = dialog.getStringFields();
 			
 			if (fun.equals("linear")) {
-				((TextField)textboxes.get(0)).setText("a+b*x");
+				((TextField)textboxes.get(0)).setText(FitFunctions.LINEAR);
 				((TextField)textboxes.get(1)).setText("1,1");
 			} else if (fun.equals("gaussian")) {
-				((TextField)textboxes.get(0)).setText("a*exp(-pow(x-b,2)/(2*pow(c,2)))");
+				((TextField)textboxes.get(0)).setText(FitFunctions.GAUSSIAN);
 				((TextField)textboxes.get(1)).setText("1,1,1");
 			} else if (fun.equals("exponential decay")) {
-				((TextField)textboxes.get(0)).setText("a*exp(-x/b)");
+				((TextField)textboxes.get(0)).setText(FitFunctions.EXPONENTIAL_DECAY);
 				((TextField)textboxes.get(1)).setText("1,1");
 			}
 		}
@@ -28,4 +28,34 @@ package de.mpg.biochem.mars.swing.plot;
 
 public interface LMFunction {
 	double getValue(double[] x, double[] parameters);
+	
+	/**
+	 * Evaluates the function at every x value in one call.
+	 * 
+	 * @param xs x values.
+	 * @param parameters Current parameter values.
+	 * @param out Receives the function values, must hold at least xs.length values.
+	 */
+	default void evaluate(double[] xs, double[] parameters, double[] out) {
+		double[] point = new double[1];
+		for (int i = 0; i < xs.length; i++) {
+			point[0] = xs[i];
+			out[i] = getValue(point, parameters);
+		}
+	}
+	
+	/**
+	 * Calculates the partial derivatives with respect to each parameter at every x value,
+	 * if the function has analytic derivatives. Otherwise the fitter falls back to 
+	 * finite differences.
+	 * 
+	 * @param xs x values.
+	 * @param parameters Current parameter values.
+	 * @param jacobian Receives the derivatives in row-major order, one row of
+	 * parameters.length values for each x value.
+	 * @return true if the jacobian was filled.
+	 */
+	default boolean evaluateDerivatives(double[] xs, double[] parameters, double[] jacobian) {
+		return false;
+	}
 }
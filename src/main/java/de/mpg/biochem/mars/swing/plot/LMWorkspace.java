@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+/**
+ * Scratch arrays for LMplotfit.solve stored flat in row-major order. A workspace
+ * grows to the largest fit it has seen and can be reused for any number of fits,
+ * but only by one thread at a time.
+ */
+public class LMWorkspace {
+	
+	//Results of the last fit
+	public double chiSquared;
+	public int iterations;
+	
+	//Sized by the number of points
+	double[] model = new double[0];
+	double[] trial = new double[0];
+	double[] upper = new double[0];
+	double[] lower = new double[0];
+	double[] jacobian = new double[0];
+	
+	//Sized by the number of parameters
+	double[] curvature = new double[0];
+	double[] alpha = new double[0];
+	double[] inverse = new double[0];
+	double[] gradient = new double[0];
+	double[] beta = new double[0];
+	double[] delta = new double[0];
+	
+	void ensureCapacity(int nPoints, int nParameters) {
+		if (model.length < nPoints || jacobian.length < nPoints * nParameters) {
+			model = new double[nPoints];
+			trial = new double[nPoints];
+			upper = new double[nPoints];
+			lower = new double[nPoints];
+			jacobian = new double[nPoints * nParameters];
+		}
+		
+		if (delta.length < nParameters) {
+			curvature = new double[nParameters * nParameters];
+			alpha = new double[nParameters * nParameters];
+			inverse = new double[nParameters * nParameters];
+			gradient = new double[nParameters];
+			beta = new double[nParameters];
+			delta = new double[nParameters];
+		}
+	}
+}
@@ -46,6 +46,9 @@ public class LMplotfit extends LevenbergMarquardt {
 	private double[][] covar;
 	double[][] identityMatrix;
 	
+	//Used by the one dimensional solve without an explicit workspace
+	private LMWorkspace workspace = new LMWorkspace();
+	
 	public LMplotfit(LMFunction function, int nParameters) {
 		this(function, nParameters, 0.00001, 10000);
 	}
@@ -63,9 +66,18 @@ public class LMplotfit extends LevenbergMarquardt {
 		identityMatrix = new double[nParameters][nParameters];
 	}
 	
-	//Needs to somehow be integrated into LM better and use this method properly...
 	public double getValue(double[] x, double[] p, double[] dyda) {
-		return 0;	
+		if (!function.evaluateDerivatives(new double[] { x[0] }, p, dyda)) {
+			for (int i = 0; i < nParameters; i++) {
+				p[i] += deltaParameter;
+				dyda[i] = function.getValue(x, p);
+				p[i] -= 2.0 * deltaParameter;
+				dyda[i] -= function.getValue(x, p);
+				dyda[i] /= 2.0 * deltaParameter;
+				p[i] += deltaParameter;
+			}
+		}
+		return function.getValue(x, p);
 	}
 	
 	private final double getChiSquared(double[] parameters, double[][] x, double[] y, double[] sigma) {
@@ -165,23 +177,193 @@ public class LMplotfit extends LevenbergMarquardt {
 			
 		} while (++iterations < maxIterations && Math.abs(before - chiSquared) > precision);
 		
-		if (stdDev != null) {
-			// determine standard deviation of parameters
-			for (int i = 0; i < identityMatrix.length; i++) {
-				for (int j = 0; j < identityMatrix.length; j++)
-					identityMatrix[i][j] = 0;
-				identityMatrix[i][i] = 1;
+		if (stdDev != null)
+			calculateStdDev(stdDev, x.length);
+		
+		return lambda;
+	}
+	
+	private final double getChiSquared(double[] model, double[] y, double[] sigma) {
+		double sumOfSquares = 0.0;
+		double residual;
+		
+		if (sigma != null) {	// chi squared
+			for (int i = 0; i < y.length; i++) {
+				residual = (model[i] - y[i]) / sigma[i];
+				sumOfSquares += residual * residual;
+			}
+		}
+		else {	// sum of squares
+			for (int i = 0; i < y.length; i++) {
+				residual = model[i] - y[i];
+				sumOfSquares += residual * residual;
+			}
+		}
+		
+		return sumOfSquares;
+	}
+	
+	//Fills the row-major jacobian using analytic derivatives if the function provides them.
+	private final void calculateJacobian(double[] parameters, double[] x, LMWorkspace ws) {
+		if (function.evaluateDerivatives(x, parameters, ws.jacobian))
+			return;
+		
+		for (int i = 0; i < nParameters; i++) {
+			parameters[i] += deltaParameter;
+			function.evaluate(x, parameters, ws.upper);
+			
+			parameters[i] -= 2.0 * deltaParameter;
+			function.evaluate(x, parameters, ws.lower);
+			
+			parameters[i] += deltaParameter;
+			
+			for (int j = 0; j < x.length; j++)
+				ws.jacobian[j * nParameters + i] = (ws.upper[j] - ws.lower[j]) / (2.0 * deltaParameter);
+		}
+	}
+	
+	//Curvature (J^T J) and gradient (J^T (y - model)) in a single pass over the points.
+	//Only the lower triangle is accumulated and then mirrored.
+	private final void accumulate(double[] y, LMWorkspace ws) {
+		int m = nParameters;
+		double[] jacobian = ws.jacobian;
+		double[] model = ws.model;
+		double[] curvature = ws.curvature;
+		double[] gradient = ws.gradient;
+		
+		for (int i = 0; i < m * m; i++)
+			curvature[i] = 0;
+		for (int i = 0; i < m; i++)
+			gradient[i] = 0;
+		
+		for (int k = 0; k < y.length; k++) {
+			int row = k * m;
+			double residual = y[k] - model[k];
+			
+			for (int i = 0; i < m; i++) {
+				double d = jacobian[row + i];
+				gradient[i] += d * residual;
+				
+				for (int j = 0; j <= i; j++)
+					curvature[i * m + j] += d * jacobian[row + j];
+			}
+		}
+		
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < i; j++)
+				curvature[j * m + i] = curvature[i * m + j];
+	}
+	
+	/**
+	 * Fits one dimensional x values. The model is evaluated for all points in one call 
+	 * to the function and analytic derivatives are used when the function supplies them.
+	 */
+	public double solve(double[] parameters, boolean[] vary, double[] x, double[] y, double[] sigma, double lambda, double[] stdDev) {
+		lambda = solve(parameters, vary, x, y, sigma, lambda, stdDev, workspace);
+		chiSquared = workspace.chiSquared;
+		iterations = workspace.iterations;
+		return lambda;
+	}
+	
+	/**
+	 * Fits one dimensional x values using only the arrays of the workspace, so fits 
+	 * run back to back don't allocate. chi^2 and the number of iterations are left in
+	 * the workspace and this object isn't modified, so the same fitter can be used
+	 * from several threads as long as each of them passes its own workspace.
+	 */
+	public double solve(double[] parameters, boolean[] vary, double[] x, double[] y, double[] sigma, double lambda, double[] stdDev, LMWorkspace ws) {
+		int m = nParameters;
+		ws.ensureCapacity(x.length, m);
+		
+		double[] alpha = ws.alpha;
+		double[] beta = ws.beta;
+		double[] delta = ws.delta;
+		
+		ws.iterations = 0;
+		function.evaluate(x, parameters, ws.model);
+		double chi2 = getChiSquared(ws.model, y, sigma);
+		double before;
+		
+		calculateJacobian(parameters, x, ws);
+		accumulate(y, ws);
+		
+		do {
+			// alpha is the curvature with the diagonal scaled by 1 + lambda
+			System.arraycopy(ws.curvature, 0, alpha, 0, m * m);
+			for (int i = 0; i < m; i++)
+				alpha[i * m + i] += lambda * alpha[i * m + i];
+			
+			System.arraycopy(ws.gradient, 0, beta, 0, m);
+			
+			gaussJordan(alpha, beta, m, 1);
+			
+			for (int i = 0; i < m; i++)
+				delta[i] = parameters[i] + beta[i];
+			
+			before = chi2;
+			function.evaluate(x, delta, ws.trial);
+			chi2 = getChiSquared(ws.trial, y, sigma);
+			
+			if (chi2 < before) {
+				lambda /= factor;
+				
+				// adjust parameters
+				for (int i = 0; i < m; i++) {
+					if (vary == null || vary[i])
+						parameters[i] = delta[i];
+				}
+				
+				if (vary == null) {
+					// the trial values are the new model
+					double[] t = ws.model;
+					ws.model = ws.trial;
+					ws.trial = t;
+				} else {
+					function.evaluate(x, parameters, ws.model);
+				}
+				
+				calculateJacobian(parameters, x, ws);
+				accumulate(y, ws);
 			}
+			else
+				lambda *= factor;
 			
-			gaussJordan(covar, identityMatrix);
+		} while (++ws.iterations < maxIterations && Math.abs(before - chi2) > precision);
+		
+		ws.chiSquared = chi2;
+		
+		if (stdDev != null) {
+			// invert the curvature for the standard deviation of the parameters
+			double[] inverse = ws.inverse;
+			System.arraycopy(ws.curvature, 0, alpha, 0, m * m);
+			for (int i = 0; i < m * m; i++)
+				inverse[i] = 0;
+			for (int i = 0; i < m; i++)
+				inverse[i * m + i] = 1;
+			
+			gaussJordan(alpha, inverse, m, m);
 			
-			for (int i = 0; i < identityMatrix.length; i++)
-				stdDev[i] = Math.sqrt(identityMatrix[i][i] * chiSquared / (x.length - parameters.length));
+			for (int i = 0; i < m; i++)
+				stdDev[i] = Math.sqrt(inverse[i * m + i] * chi2 / (x.length - m));
 		}
 		
 		return lambda;
 	}
 	
+	private void calculateStdDev(double[] stdDev, int n) {
+		// determine standard deviation of parameters
+		for (int i = 0; i < identityMatrix.length; i++) {
+			for (int j = 0; j < identityMatrix.length; j++)
+				identityMatrix[i][j] = 0;
+			identityMatrix[i][i] = 1;
+		}
+		
+		gaussJordan(covar, identityMatrix);
+		
+		for (int i = 0; i < identityMatrix.length; i++)
+			stdDev[i] = Math.sqrt(identityMatrix[i][i] * chiSquared / (n - nParameters));
+	}
+	
 	public final void gaussJordan(double[][] left, double[][] right) {
 		int n = left.length;
 		int rCols = right[0].length;
@@ -230,6 +412,61 @@ public class LMplotfit extends LevenbergMarquardt {
 		}
 	}
 	
+	/**
+	 * Gauss-Jordan elimination on flat row-major matrices. left is n x n and right is
+	 * n x rCols, the solution is left in right. Rows are swapped element by element.
+	 */
+	public static void gaussJordan(double[] left, double[] right, int n, int rCols) {
+		for (int i = 0; i < n; i++) {
+			
+			// find pivot
+			int max = i;
+			
+			for (int j = i + 1; j < n; j++) {
+				if (Math.abs(left[j * n + i]) > Math.abs(left[max * n + i]))
+					max = j;
+			}
+			
+			// swap rows
+			if (max != i) {
+				for (int k = 0; k < n; k++) {
+					double t = left[i * n + k];
+					left[i * n + k] = left[max * n + k];
+					left[max * n + k] = t;
+				}
+				
+				for (int k = 0; k < rCols; k++) {
+					double t = right[i * rCols + k];
+					right[i * rCols + k] = right[max * rCols + k];
+					right[max * rCols + k] = t;
+				}
+			}
+			
+			// reduce
+			for (int j = 0; j < n; j++) {
+				
+				if (j != i) {
+					double d = left[j * n + i] / left[i * n + i];
+					
+					left[j * n + i] = 0;
+					
+					for (int k = i + 1; k < n; k++)
+						left[j * n + k] -= d * left[i * n + k];
+					
+					for (int k = 0; k < rCols; k++)
+						right[j * rCols + k] -= d * right[i * rCols + k];
+				}
+			}
+		}
+		
+		for (int i = 0; i < n; i++) {
+			double d = left[i * n + i];
+			for (int k = 0; k < rCols; k++)
+				right[i * rCols + k] /= d;
+			left[i * n + i] = 1;
+		}
+	}
+	
 	private static void printMatrices(double[][] l, double[][] r) {
 		
 		System.out.println("left :");
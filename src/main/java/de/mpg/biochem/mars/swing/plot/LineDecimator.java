@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.util.Arrays;
+
+/**
+ * Reduces a line with increasing x values to the first, last, lowest and highest
+ * point in every pixel column (M4 aggregation). Drawing the reduced line sets the
+ * same pixels as drawing every point but needs at most four points per column.
+ * Lines with x values that are not sorted are passed through unchanged and masked
+ * rows of the series are skipped.
+ */
+class LineDecimator {
+	
+	//Below this many points per column reducing isn't worth it
+	private static final int MIN_POINTS_PER_COLUMN = 4;
+	
+	private final Series series;
+	
+	//interleaved x,y
+	private double[] points = new double[0];
+	private int count = 0;
+	private int lastAdded;
+	
+	//Key of the cached result
+	private double scaleX = Double.NaN;
+	private double translateX = Double.NaN;
+	private int from, to;
+	
+	LineDecimator(Series series) {
+		this.series = series;
+	}
+	
+	/**
+	 * Reduces the points for pixel columns from to to (inclusive) of a plot with the 
+	 * given horizontal pixel transform (px = x * scaleX + translateX). Nothing is done 
+	 * if the result for the same transform and columns is already cached.
+	 */
+	void update(double scaleX, double translateX, int from, int to) {
+		if (scaleX == this.scaleX && translateX == this.translateX && from == this.from && to == this.to)
+			return;
+		
+		this.scaleX = scaleX;
+		this.translateX = translateX;
+		this.from = from;
+		this.to = to;
+		
+		count = 0;
+		lastAdded = -1;
+		
+		int n = series.length();
+		
+		if (!series.isMonotonic() || !(scaleX > 0) || Double.isInfinite(scaleX) || Double.isNaN(translateX)) {
+			for (int i = 0; i < n; i++)
+				if (series.isValid(i))
+					addPoint(i);
+			return;
+		}
+		
+		// visible range plus one point on either side so lines leaving the plot area are drawn
+		int first = series.nextValid(Math.max(0, series.previousValid(series.lowerBound((from - translateX) / scaleX) - 1)));
+		int last = Math.min(n - 1, series.nextValid(series.lowerBound((to + 1 - translateX) / scaleX)));
+		if (first > last)
+			return;
+		
+		if (last - first + 1 <= MIN_POINTS_PER_COLUMN * (to - from + 1)) {
+			for (int i = first; i <= last; i++)
+				if (series.isValid(i))
+					addPoint(i);
+			return;
+		}
+		
+		int column = (int)(series.x(first) * scaleX + translateX);
+		int firstIndex = first, minIndex = first, maxIndex = first, lastIndex = first;
+		
+		for (int i = first + 1; i <= last; i++) {
+			if (!series.isValid(i))
+				continue;
+			
+			// same truncation as used for drawing
+			int c = (int)(series.x(i) * scaleX + translateX);
+			if (c != column) {
+				addColumn(firstIndex, minIndex, maxIndex, lastIndex);
+				column = c;
+				firstIndex = minIndex = maxIndex = lastIndex = i;
+			} else {
+				double y = series.y(i);
+				if (y < series.y(minIndex))
+					minIndex = i;
+				if (y > series.y(maxIndex))
+					maxIndex = i;
+				lastIndex = i;
+			}
+		}
+		addColumn(firstIndex, minIndex, maxIndex, lastIndex);
+	}
+	
+	//Adds the points of one column in their original order
+	private void addColumn(int firstIndex, int minIndex, int maxIndex, int lastIndex) {
+		addPoint(firstIndex);
+		addPoint(Math.min(minIndex, maxIndex));
+		addPoint(Math.max(minIndex, maxIndex));
+		addPoint(lastIndex);
+	}
+	
+	private void addPoint(int index) {
+		if (index == lastAdded)
+			return;
+		if (points.length < count * 2 + 2)
+			points = Arrays.copyOf(points, Math.max(256, points.length * 2));
+		points[count * 2] = series.x(index);
+		points[count * 2 + 1] = series.y(index);
+		count++;
+		lastAdded = index;
+	}
+	
+	/**
+	 * @return interleaved x,y values of the reduced line. Only the first getCount() points are valid.
+	 */
+	double[] getPoints() {
+		return points;
+	}
+	
+	int getCount() {
+		return count;
+	}
+}
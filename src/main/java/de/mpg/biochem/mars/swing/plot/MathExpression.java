@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * Arithmetic expression in ImageJ macro syntax (e.g. "a*exp(-pow(x-b,2)/(2*pow(c,2)))")
+ * that is parsed once into a tree of nodes. Evaluation walks the tree and does not
+ * allocate, so it is safe to call for every point of every iteration of a fit and
+ * from several threads at the same time.
+ *
+ * Supported are numbers, the operators + - * / %, parentheses, the constants PI and NaN
+ * and the functions exp, log, sqrt, pow, abs, sin, cos, tan, asin, acos, atan, atan2,
+ * floor, round, minOf and maxOf (optionally with a "Math." prefix). The comparisons
+ * < <= > >= == != and the logical operators && || ! evaluate to 1 or 0, any value 
+ * other than 0 counts as true.
+ */
+public class MathExpression {
+
+	//Resolver results that are not variable slots
+	public static final int X_VARIABLE = -1;
+	public static final int UNKNOWN_VARIABLE = -2;
+
+	public interface VariableResolver {
+		/**
+		 * @return the index into the variable array passed to evaluate,
+		 * X_VARIABLE if the name refers to x or UNKNOWN_VARIABLE otherwise.
+		 */
+		int resolve(String name);
+	}
+
+	interface Node {
+		double eval(double x, double[] v);
+	}
+
+	private static final class Constant implements Node {
+		final double value;
+
+		Constant(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double eval(double x, double[] v) {
+			return value;
+		}
+	}
+
+	private final String expression;
+	private final Node root;
+	
+	//Number of variable slots up to the highest one used
+	private final int variableCount;
+
+	private MathExpression(String expression, Node root, int variableCount) {
+		this.expression = expression;
+		this.root = root;
+		this.variableCount = variableCount;
+	}
+
+	/**
+	 * Parses a fit function in which x is the independent variable and the
+	 * single letters a, b, c, ... are the parameters 0, 1, 2, ...
+	 */
+	public static MathExpression parseFitFunction(String expression) throws ParseException {
+		return parse(expression, name -> {
+			if (name.equals("x"))
+				return X_VARIABLE;
+			if (name.length() == 1 && name.charAt(0) >= 'a' && name.charAt(0) <= 'z')
+				return name.charAt(0) - 'a';
+			return UNKNOWN_VARIABLE;
+		});
+	}
+
+	public static MathExpression parse(String expression, VariableResolver resolver) throws ParseException {
+		int[] variableCount = new int[1];
+		Parser parser = new Parser(expression, name -> {
+			int slot = resolver.resolve(name);
+			variableCount[0] = Math.max(variableCount[0], slot + 1);
+			return slot;
+		});
+		Node root = parser.parseExpression();
+		parser.skipWhitespace();
+		if (parser.pos < expression.length())
+			throw new ParseException("Unexpected character '" + expression.charAt(parser.pos) + "'", parser.pos);
+		return new MathExpression(expression, root, variableCount[0]);
+	}
+
+	public double evaluate(double x, double[] variables) {
+		return root.eval(x, variables);
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+	
+	/**
+	 * @return the length of the variable array evaluate needs, one more than the 
+	 * highest slot used. For a fit function, the number of parameters.
+	 */
+	public int getVariableCount() {
+		return variableCount;
+	}
+
+	private static final class Parser {
+		private final String s;
+		private final VariableResolver resolver;
+		private int pos = 0;
+
+		Parser(String s, VariableResolver resolver) {
+			this.s = s;
+			this.resolver = resolver;
+		}
+
+		void skipWhitespace() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+				pos++;
+		}
+
+		boolean accept(char c) {
+			skipWhitespace();
+			if (pos < s.length() && s.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		boolean accept(String token) {
+			skipWhitespace();
+			if (s.startsWith(token, pos)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		void expect(char c) throws ParseException {
+			if (!accept(c))
+				throw new ParseException("Expected '" + c + "'", pos);
+		}
+
+		Node parseExpression() throws ParseException {
+			Node left = parseAnd();
+			while (accept("||")) {
+				Node l = left, r = parseAnd();
+				left = fold((x, v) -> l.eval(x, v) != 0 || r.eval(x, v) != 0 ? 1 : 0, l, r);
+			}
+			return left;
+		}
+
+		Node parseAnd() throws ParseException {
+			Node left = parseEquality();
+			while (accept("&&")) {
+				Node l = left, r = parseEquality();
+				left = fold((x, v) -> l.eval(x, v) != 0 && r.eval(x, v) != 0 ? 1 : 0, l, r);
+			}
+			return left;
+		}
+
+		Node parseEquality() throws ParseException {
+			Node left = parseComparison();
+			while (true) {
+				if (accept("==")) {
+					Node l = left, r = parseComparison();
+					left = fold((x, v) -> l.eval(x, v) == r.eval(x, v) ? 1 : 0, l, r);
+				} else if (accept("!=")) {
+					Node l = left, r = parseComparison();
+					left = fold((x, v) -> l.eval(x, v) != r.eval(x, v) ? 1 : 0, l, r);
+				} else {
+					return left;
+				}
+			}
+		}
+
+		Node parseComparison() throws ParseException {
+			Node left = parseSum();
+			while (true) {
+				if (accept("<=")) {
+					Node l = left, r = parseSum();
+					left = fold((x, v) -> l.eval(x, v) <= r.eval(x, v) ? 1 : 0, l, r);
+				} else if (accept(">=")) {
+					Node l = left, r = parseSum();
+					left = fold((x, v) -> l.eval(x, v) >= r.eval(x, v) ? 1 : 0, l, r);
+				} else if (accept('<')) {
+					Node l = left, r = parseSum();
+					left = fold((x, v) -> l.eval(x, v) < r.eval(x, v) ? 1 : 0, l, r);
+				} else if (accept('>')) {
+					Node l = left, r = parseSum();
+					left = fold((x, v) -> l.eval(x, v) > r.eval(x, v) ? 1 : 0, l, r);
+				} else {
+					return left;
+				}
+			}
+		}
+
+		Node parseSum() throws ParseException {
+			Node left = parseTerm();
+			while (true) {
+				if (accept('+')) {
+					Node l = left, r = parseTerm();
+					left = fold((x, v) -> l.eval(x, v) + r.eval(x, v), l, r);
+				} else if (accept('-')) {
+					Node l = left, r = parseTerm();
+					left = fold((x, v) -> l.eval(x, v) - r.eval(x, v), l, r);
+				} else {
+					return left;
+				}
+			}
+		}
+
+		Node parseTerm() throws ParseException {
+			Node left = parseUnary();
+			while (true) {
+				if (accept('*')) {
+					Node l = left, r = parseUnary();
+					left = fold((x, v) -> l.eval(x, v) * r.eval(x, v), l, r);
+				} else if (accept('/')) {
+					Node l = left, r = parseUnary();
+					left = fold((x, v) -> l.eval(x, v) / r.eval(x, v), l, r);
+				} else if (accept('%')) {
+					Node l = left, r = parseUnary();
+					left = fold((x, v) -> l.eval(x, v) % r.eval(x, v), l, r);
+				} else {
+					return left;
+				}
+			}
+		}
+
+		Node parseUnary() throws ParseException {
+			if (accept('-')) {
+				Node n = parseUnary();
+				return fold((x, v) -> -n.eval(x, v), n);
+			}
+			if (accept('+'))
+				return parseUnary();
+			if (accept('!')) {
+				Node n = parseUnary();
+				return fold((x, v) -> n.eval(x, v) == 0 ? 1 : 0, n);
+			}
+			return parsePrimary();
+		}
+
+		Node parsePrimary() throws ParseException {
+			skipWhitespace();
+			if (pos >= s.length())
+				throw new ParseException("Unexpected end of expression", pos);
+
+			char c = s.charAt(pos);
+			if (c == '(') {
+				pos++;
+				Node n = parseExpression();
+				expect(')');
+				return n;
+			} else if (Character.isDigit(c) || c == '.') {
+				return parseNumber();
+			} else if (Character.isLetter(c) || c == '_') {
+				int start = pos;
+				while (pos < s.length() && (Character.isLetterOrDigit(s.charAt(pos)) || s.charAt(pos) == '_' || s.charAt(pos) == '.'))
+					pos++;
+				String name = s.substring(start, pos);
+
+				if (accept('('))
+					return parseFunction(name, start);
+
+				return variable(name, start);
+			}
+			throw new ParseException("Unexpected character '" + c + "'", pos);
+		}
+
+		Node parseNumber() throws ParseException {
+			int start = pos;
+			while (pos < s.length() && (Character.isDigit(s.charAt(pos)) || s.charAt(pos) == '.'))
+				pos++;
+			if (pos < s.length() && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+				int mark = pos++;
+				if (pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-'))
+					pos++;
+				if (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+					while (pos < s.length() && Character.isDigit(s.charAt(pos)))
+						pos++;
+				} else {
+					//Not an exponent after all
+					pos = mark;
+				}
+			}
+			try {
+				return new Constant(Double.parseDouble(s.substring(start, pos)));
+			} catch (NumberFormatException e) {
+				throw new ParseException("Invalid number " + s.substring(start, pos), start);
+			}
+		}
+
+		Node variable(String name, int start) throws ParseException {
+			if (name.equals("PI") || name.equals("Math.PI"))
+				return new Constant(Math.PI);
+			if (name.equals("NaN"))
+				return new Constant(Double.NaN);
+
+			int slot = resolver.resolve(name);
+			if (slot == X_VARIABLE)
+				return (x, v) -> x;
+			if (slot < 0)
+				throw new ParseException("Unknown variable " + name, start);
+			return (x, v) -> v[slot];
+		}
+
+		Node parseFunction(String name, int start) throws ParseException {
+			ArrayList<Node> args = new ArrayList<Node>();
+			if (!accept(')')) {
+				do {
+					args.add(parseExpression());
+				} while (accept(','));
+				expect(')');
+			}
+
+			if (name.startsWith("Math."))
+				name = name.substring(5);
+
+			if (args.size() == 1) {
+				Node a = args.get(0);
+				switch (name) {
+				case "exp":
+					return fold((x, v) -> Math.exp(a.eval(x, v)), a);
+				case "log":
+					return fold((x, v) -> Math.log(a.eval(x, v)), a);
+				case "sqrt":
+					return fold((x, v) -> Math.sqrt(a.eval(x, v)), a);
+				case "abs":
+					return fold((x, v) -> Math.abs(a.eval(x, v)), a);
+				case "sin":
+					return fold((x, v) -> Math.sin(a.eval(x, v)), a);
+				case "cos":
+					return fold((x, v) -> Math.cos(a.eval(x, v)), a);
+				case "tan":
+					return fold((x, v) -> Math.tan(a.eval(x, v)), a);
+				case "asin":
+					return fold((x, v) -> Math.asin(a.eval(x, v)), a);
+				case "acos":
+					return fold((x, v) -> Math.acos(a.eval(x, v)), a);
+				case "atan":
+					return fold((x, v) -> Math.atan(a.eval(x, v)), a);
+				case "floor":
+					return fold((x, v) -> Math.floor(a.eval(x, v)), a);
+				case "round":
+					return fold((x, v) -> Math.round(a.eval(x, v)), a);
+				}
+			} else if (args.size() == 2) {
+				Node a = args.get(0), b = args.get(1);
+				switch (name) {
+				case "pow":
+					//Squares are by far the most common case in fit functions
+					if (b instanceof Constant && ((Constant)b).value == 2)
+						return fold((x, v) -> { double t = a.eval(x, v); return t * t; }, a);
+					return fold((x, v) -> Math.pow(a.eval(x, v), b.eval(x, v)), a, b);
+				case "atan2":
+					return fold((x, v) -> Math.atan2(a.eval(x, v), b.eval(x, v)), a, b);
+				case "minOf":
+				case "min":
+					return fold((x, v) -> Math.min(a.eval(x, v), b.eval(x, v)), a, b);
+				case "maxOf":
+				case "max":
+					return fold((x, v) -> Math.max(a.eval(x, v), b.eval(x, v)), a, b);
+				}
+			}
+			throw new ParseException("Unknown function " + name + " with " + args.size() + " arguments", start);
+		}
+
+		//Evaluate nodes with only constant inputs right away
+		private static Node fold(Node node, Node... inputs) {
+			for (Node input : inputs)
+				if (!(input instanceof Constant))
+					return node;
+			return new Constant(node.eval(0, null));
+		}
+	}
+}
@@ -28,6 +28,7 @@ package de.mpg.biochem.mars.swing.plot;
 
 import java.lang.reflect.Field;
 import java.awt.GraphicsEnvironment;
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.BorderLayout;
 import java.awt.Cursor;
@@ -38,7 +39,10 @@ import java.awt.Graphics2D;
 import java.awt.GridLayout;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.Toolkit;
+import java.awt.Transparency;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
@@ -69,9 +73,13 @@ import java.awt.GridBagLayout;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.imageio.ImageIO;
 import javax.swing.Box;
@@ -91,6 +99,8 @@ import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import de.mpg.biochem.mars.molecule.Molecule;
@@ -128,13 +138,16 @@ public class Plot extends JComponent implements ActionListener {
 	private static ArrayList<String> pKeyParameters; 
 	
 	//Added KED for getting points with p button:
-	Point2D.Double selectedCoordinate;
+	Point2D.Double selectedCoordinate = new Point2D.Double();
 	
-	public ArrayList<Type> plotTypes = new ArrayList<Type>();
-	public ArrayList<String> plotNames = new ArrayList<String>();
-	public ArrayList<Color> plotColors = new ArrayList<Color>();
-	public ArrayList<Float> plotLineWidths = new ArrayList<Float>();
-	public ArrayList<Style> plotStyles = new ArrayList<Style>();
+	//Nearest point lookup for the tracker, rebuilt when the pixel coordinates change
+	private static final int TRACKER_RADIUS = 100;
+	private PointIndex pointIndex = new PointIndex();
+	private boolean pointIndexValid = false;
+	private boolean hasTrackedPoint = false;
+	
+	//Plotted datasets in drawing order
+	protected ArrayList<Series> series = new ArrayList<Series>();
 	protected Font font = new Font(Prefs.get("plot.font_type","Arial"), Font.PLAIN, (int)Prefs.get("plot.font_size", 14));
 	protected Font label_font = new Font(Prefs.get("plot.font_type","Arial"), Font.PLAIN, (int)Prefs.get("plot.label_font_size", 14));
 	protected Font title_font = new Font(Prefs.get("plot.font_type","Arial"), Font.PLAIN, (int)Prefs.get("plot.title_font_size", 14));
@@ -156,8 +169,19 @@ public class Plot extends JComponent implements ActionListener {
 	protected double gap = 0.2;
 	protected String[] colors = {"black", "blue", "cyan", "gray", "green", "magenta", "orange", "pink", "red", "white", "yellow"};
 	
-	protected ArrayList<double[]> plotCoordinates = new ArrayList<double[]>();
-	protected ArrayList<double[]> pixelCoordinates = new ArrayList<double[]>();
+	private double[] linePixels = new double[0];
+	
+	//Transform used for the current pixel positions of the series
+	private AffineTransform pixelTransform;
+	
+	//Axes and curves are drawn into this image and only redrawn when the data, 
+	//bounds, size or properties change. Everything else is painted on top.
+	private BufferedImage layer;
+	private AffineTransform layerTransform;
+	private double layerScaleX, layerScaleY;
+	private int layerWidth, layerHeight;
+	private int layerVersion = -1;
+	private int version = 0;
 	
 	protected Rectangle2D.Double originalBounds;
 	protected Rectangle2D.Double bounds;
@@ -250,7 +274,7 @@ public class Plot extends JComponent implements ActionListener {
 	           @Override
 	           public void keyPressed(KeyEvent e) {
 	               // add selected point to the parameters
-	        	   if (molecule != null && e.getKeyChar() == 'p') {
+	        	   if (molecule != null && hasTrackedPoint && e.getKeyChar() == 'p') {
 	        		   molecule.setParameter(pKeyParameters.get(pointsPosition), selectedCoordinate.getX());
 	        		   pointsPosition++;
 	        		   if (pointsPosition >= pKeyParameters.size())
@@ -389,37 +413,9 @@ public class Plot extends JComponent implements ActionListener {
 	}
 	
 	public void resetOriginalBounds() {
-		//FIX NaN not-plotting issue
 		originalBounds = null;
-		for (int i=0;i<plotCoordinates.size();i++) {
-			double[] coor = plotCoordinates.get(i);
-			
-			for (int j = 0; j < coor.length/2; j++) {
-				if (!Double.isNaN(coor[j * 2]) && !Double.isNaN(coor[j * 2 + 1])) {
-					originalBounds = new Rectangle2D.Double(coor[j * 2], coor[j * 2 + 1], 0, 0);
-					break;
-				}
-			}
-			if (originalBounds != null)
-				break;
-		}
-		//FIX NaN non-plotting issue
-		
-		for (int i=0;i<plotCoordinates.size();i++) {
-			double[] coor = plotCoordinates.get(i);
-			Type type = plotTypes.get(i);
-			
-			for (int j = 0; j < coor.length/2; j++) {
-				if (type == Type.BAR) {
-					double binWidth = coor[2]-coor[0];
-					if (!Double.isNaN(coor[j * 2]) && !Double.isNaN(coor[j * 2 + 1]))
-						originalBounds.add(new Rectangle2D.Double(coor[j * 2] - binWidth/2, 0, binWidth, coor[j * 2 + 1]));
-				} else {
-					if (!Double.isNaN(coor[j * 2]) && !Double.isNaN(coor[j * 2 + 1]))
-						originalBounds.add(coor[j * 2], coor[j * 2 + 1]);
-				}
-			}
-		}
+		for (Series s : series)
+			addToOriginalBounds(s);
 		
 		if (fixYBounds) {
 			originalBounds.setRect(originalBounds.getX(), yfrom, originalBounds.getWidth(), yto - yfrom);
@@ -449,11 +445,11 @@ public class Plot extends JComponent implements ActionListener {
 	}
 	
 	public void addLinePlot(double[] x, double[] y, int from, int to, Color c, float lineWidth) {
-		addLinePlot(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth);
+		addPlot(x, y, from, to - from, Type.LINE, c, lineWidth, "");
 	}
 	
 	public void addLinePlot(double[] x, double[] y, int from, int to, Color c, float lineWidth, String plotName) {
-		addLinePlot(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth, plotName);
+		addPlot(x, y, from, to - from, Type.LINE, c, lineWidth, plotName);
 	}
 	
 	public void addFitPlot(double[] x, double[] y, Color c, float lineWidth, String plotName) {
@@ -461,27 +457,27 @@ public class Plot extends JComponent implements ActionListener {
 	}
 	
 	public void addScatterPlot(double[] x, double[] y, int from, int to, Color c, float lineWidth) {
-		addScatterPlot(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth);
+		addPlot(x, y, from, to - from, Type.SCATTER, c, lineWidth, "");
 	}
 	
 	public void addScatterPlot(double[] x, double[] y, int from, int to, Color c, float lineWidth, String plotName) {
-		addScatterPlot(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth, plotName);
+		addPlot(x, y, from, to - from, Type.SCATTER, c, lineWidth, plotName);
 	}
 	
 	public void addBarGraph(double[] x, double[] y, int from, int to, Color c, float lineWidth) {
-		addBarGraph(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth);
+		addPlot(x, y, from, to - from, Type.BAR, c, lineWidth, "");
 	}
 	
 	public void addBarGraph(double[] x, double[] y, int from, int to, Color c, float lineWidth, String plotName) {
-		addBarGraph(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth, plotName);
+		addPlot(x, y, from, to - from, Type.BAR, c, lineWidth, plotName);
 	}
 	
 	public void addSegmentPlot(double[] x, double[] y, int from, int to, Color c, float lineWidth) {
-		addSegmentPlot(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth);
+		addPlot(x, y, from, to - from, Type.SEGMENTS, c, lineWidth, "");
 	}
 	
 	public void addSegmentPlot(double[] x, double[] y, int from, int to, Color c, float lineWidth, String plotName) {
-		addSegmentPlot(Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to), c, lineWidth, plotName);
+		addPlot(x, y, from, to - from, Type.SEGMENTS, c, lineWidth, plotName);
 	}
 	
 	public void addBarGraph(double[] x, double[] y,Color c, float lineWidth) {
@@ -517,39 +513,24 @@ public class Plot extends JComponent implements ActionListener {
 	}
 	
 	private void addPlot(double[] x, double[] y, Type type, Color c, float lineWidth) {
-		addPlot(x, y, type, c, lineWidth, "");
+		addPlot(x, y, 0, x.length, type, c, lineWidth, "");
 	}
 	
 	private void addPlot(double[] x, double[] y, Type type, Color c, float lineWidth, String plotName) {
-		//Determine size without NaN containing rows.
-		int nonNaNrowCount = 0;
-		for (int i = 0; i < x.length; i++) {
-			if (!Double.isNaN(x[i]) && !Double.isNaN(y[i]))
-				nonNaNrowCount++;
-		}
-		
-		if (nonNaNrowCount == 0)
+		addPlot(x, y, 0, x.length, type, c, lineWidth, plotName);
+	}
+	
+	//The values from offset to offset + length are plotted without copying them
+	private void addPlot(double[] x, double[] y, int offset, int length, Type type, Color c, float lineWidth, String plotName) {
+		addSeries(new Series(x, y, offset, length, type, c, lineWidth, plotName));
+	}
+	
+	void addSeries(Series s) {
+		// rows with NaN values are skipped
+		if (s.validCount() == 0)
 			return;
 		
-		double[] plot = new double[nonNaNrowCount * 2];
-		
-		int pos = 0;
-		for (int i = 0; i < x.length; i++) {
-			if (!Double.isNaN(x[i]) && !Double.isNaN(y[i])) {
-				plot[pos * 2] = x[i];
-				plot[pos * 2 + 1] = y[i];
-				if (originalBounds == null) {
-					originalBounds = new Rectangle2D.Double(x[i], y[i], 0, 0);
-				} else {
-					if (type == Type.BAR) {
-						double binWidth = x[1]-x[0];
-						originalBounds.add(new Rectangle2D.Double(x[i] - binWidth/2, 0, binWidth, y[i]));
-					} else
-						originalBounds.add(x[i], y[i]);	
-				}
-				pos++;
-			}
-		}
+		addToOriginalBounds(s);
 		
 		if (fixYBounds) {
 			Rectangle2D.Double newBounds = new Rectangle2D.Double(originalBounds.getX(), yfrom, originalBounds.getWidth(), yto - yfrom);
@@ -566,72 +547,86 @@ public class Plot extends JComponent implements ActionListener {
 		else
 			bounds.add(originalBounds);
 		
-		plotCoordinates.add(plot);
-		pixelCoordinates.add(new double[plot.length]);	// make space for translated coordinates
-		plotTypes.add(type);
+		series.add(s);
+		pixelTransform = null;
 		
-		plotColors.add(c);
-		plotLineWidths.add(lineWidth);
-		plotStyles.add(Style.SOLID);
-		
-		plotNames.add(plotName);
+		invalidateLayer();
+	}
+	
+	//Grows originalBounds to include the envelope of the series
+	private void addToOriginalBounds(Series s) {
+		if (originalBounds == null)
+			originalBounds = (Rectangle2D.Double)s.getBounds().clone();
+		else
+			originalBounds.add(s.getBounds());
 	}
 	
 	public void deletePlot(int index) {
 		//every delete operation will obviously shift all index numbers..
-		plotCoordinates.remove(index);
-		pixelCoordinates.remove(index);
-		plotTypes.remove(index);
-		plotColors.remove(index);
-		plotLineWidths.remove(index);
-		plotStyles.remove(index);
-		plotNames.remove(index);
+		series.remove(index);
+		pixelTransform = null;
 		
 		//Now we need to reset the originalBounds of the plot.
 		originalBounds = null;
-		for (int j=0;j<plotCoordinates.size();j++) {
-			if (originalBounds == null) {
-				for (int i = 0; i < plotCoordinates.get(j).length/2; i++) {
-					if (!Double.isNaN(plotCoordinates.get(j)[i * 2]) && !Double.isNaN(plotCoordinates.get(j)[i * 2 + 1]))
-						originalBounds = new Rectangle2D.Double(plotCoordinates.get(j)[i * 2], plotCoordinates.get(j)[i * 2 + 1], 0, 0);
-				}
-			}
-			
-			for (int i = 0; i < plotCoordinates.get(j).length/2; i++) {
-				if (plotTypes.get(j) == Type.BAR) {
-					double binWidth = plotCoordinates.get(j)[2] - plotCoordinates.get(j)[0];
-					if (!Double.isNaN(plotCoordinates.get(j)[i * 2]) && !Double.isNaN(plotCoordinates.get(j)[i * 2 + 1]))
-						originalBounds.add(new Rectangle2D.Double(plotCoordinates.get(j)[i * 2] - binWidth/2, 0, binWidth, plotCoordinates.get(j)[i * 2 + 1]));
-				} else {
-					if (!Double.isNaN(plotCoordinates.get(j)[i * 2]) && !Double.isNaN(plotCoordinates.get(j)[i * 2 + 1]))
-						originalBounds.add(plotCoordinates.get(j)[i * 2], plotCoordinates.get(j)[i * 2 + 1]);
-				}
-					
-			}
-		}
+		for (Series s : series)
+			addToOriginalBounds(s);
+		
+		invalidateLayer();
+	}
+	
+	public int getSeriesCount() {
+		return series.size();
+	}
+	
+	public String getSeriesName(int index) {
+		return series.get(index).name;
+	}
+	
+	/**
+	 * @return the x values of a plotted dataset without the rows containing NaN.
+	 */
+	public double[] getSeriesX(int index) {
+		return series.get(index).getX();
+	}
+	
+	/**
+	 * @return the y values of a plotted dataset without the rows containing NaN.
+	 */
+	public double[] getSeriesY(int index) {
+		return series.get(index).getY();
 	}
 	
 	public void clear() {
-		plotCoordinates.clear();
-		pixelCoordinates.clear();
-		plotColors.clear();
-		plotLineWidths.clear();
-		plotTypes.clear();
-		plotNames.clear();
+		series.clear();
+		pixelTransform = null;
 		bounds = null;
 		originalBounds = null;
+		
+		invalidateLayer();
+	}
+	
+	/**
+	 * Forces the axes and curves to be redrawn on the next paint. Adding or removing
+	 * series and changing labels, fonts or properties already does this, it is only 
+	 * needed after changing the color, style or line width of a plotted Series.
+	 */
+	public void invalidateLayer() {
+		version++;
 	}
 	
 	public void setxAxisLabel(String xAxisLabel) {
 		this.xAxisLabel = xAxisLabel;
+		invalidateLayer();
 	}
 
 	public void setyAxisLabel(String yAxisLabel) {
 		this.yAxisLabel = yAxisLabel;
+		invalidateLayer();
 	}
 	
 	public void setCaption(String caption) {
 		this.caption = caption;
+		invalidateLayer();
 	}
 	
 	public void setGroup(String group_name, int group_number) {
@@ -647,7 +642,8 @@ public class Plot extends JComponent implements ActionListener {
 	}
 
 	public void setFont(Font font) {
-		this.font = font;			
+		this.font = font;
+		invalidateLayer();
 	}
 	
 	public void paintAxis(Graphics g) {
@@ -710,9 +706,6 @@ public class Plot extends JComponent implements ActionListener {
 	public void paintPlot(Graphics g) {
 		Graphics2D g2d = (Graphics2D) g;
 		
-		Point selectedPoint = new Point();
-		selectedCoordinate = new Point2D.Double();
-		
 		int width = getWidth() - leftMargin - rightMargin;
 		int height = getHeight() - bottomMargin - topMargin;
 		
@@ -725,85 +718,82 @@ public class Plot extends JComponent implements ActionListener {
 		Path2D p2D = new Path2D.Double(Path2D.WIND_EVEN_ODD);
 		
 		// draw plots
-		for (int i = 0; i < plotCoordinates.size(); i++) {
-			double[] coordinates = pixelCoordinates.get(i);
-			
-			g2d.setColor(plotColors.get(i));
-			g2d.setStroke(new BasicStroke(plotLineWidths.get(i)));
+		for (Series s : series) {
+			g2d.setColor(s.color);
+			g2d.setStroke(new BasicStroke(s.lineWidth));
 			
-			for (int j = 0; j < coordinates.length; j += 2) {
-				
-				switch (plotTypes.get(i)) {
-				case LINE:
-					if (j + 2 < coordinates.length 
-							&& !Double.isNaN(coordinates[j]) 
-							&& !Double.isNaN(coordinates[j+1])
-							&& !Double.isNaN(coordinates[j+2])
-							&& !Double.isNaN(coordinates[j+3]))
-						g2d.drawLine((int)coordinates[j], (int)coordinates[j + 1], (int)coordinates[j + 2], (int)coordinates[j + 3]);
-					break;
-				case FIT:
-					if (j + 2 < coordinates.length
-							&& !Double.isNaN(coordinates[j]) 
-							&& !Double.isNaN(coordinates[j+1])
-							&& !Double.isNaN(coordinates[j+2])
-							&& !Double.isNaN(coordinates[j+3]))
-						g2d.drawLine((int)coordinates[j], (int)coordinates[j + 1], (int)coordinates[j + 2], (int)coordinates[j + 3]);
-					break;
-				case SCATTER:
-					if (!Double.isNaN(coordinates[j]) 
-							&& !Double.isNaN(coordinates[j+1]))
-						g2d.drawOval((int)coordinates[j] - 1, (int)coordinates[j + 1] - 1, 2, 2);
-					break;
-				case BAR:
-					Rectangle2D r1 = new Rectangle2D.Double(
-							coordinates[j] + (gap-0.5)*(coordinates[2] - coordinates[0]),
-							coordinates[j + 1],
-							(1 - 2*gap)*(coordinates[2] - coordinates[0]),
-							(transform.getTranslateY() - coordinates[j + 1]));
-					
-					if (plotStyles.get(i).equals(Style.SOLID)) {
-						g2d.fill(r1);
-						g2d.setColor(Color.BLACK);
-						if (plotLineWidths.get(i) != 0)
-							g2d.draw(r1);
-						g2d.setColor(plotColors.get(i));
-					} else {
-						g2d.setColor(Color.WHITE);
-						g2d.fill(r1);
-						g2d.setColor(plotColors.get(i));
-						g2d.draw(r1);
-					}
-					p2D.append(r1, false);
-					break;
-				case SEGMENTS:
-					//Should only connect every other set of consecutive points
-					if (j + 2 < coordinates.length && (j % 4 == 0)) {
-						if (!Double.isNaN(coordinates[j]) 
-							&& !Double.isNaN(coordinates[j+1])
-							&& !Double.isNaN(coordinates[j+2])
-							&& !Double.isNaN(coordinates[j+3]))
-							g2d.drawLine((int)coordinates[j], (int)coordinates[j + 1], (int)coordinates[j + 2], (int)coordinates[j + 3]);
-					}
-					break;
-				}
-				
-				if (!Double.isNaN(coordinates[j]) && !Double.isNaN(coordinates[j+1])) {
-					if (mousePosition.distance((int)coordinates[j], (int)coordinates[j + 1]) < mousePosition.distance(selectedPoint)) {
-						selectedPoint = new Point((int)coordinates[j], (int)coordinates[j + 1]);
-						selectedCoordinate = new Point2D.Double(plotCoordinates.get(i)[j], plotCoordinates.get(i)[j + 1]);
-					}	
+			switch (s.type) {
+			case LINE:
+			case FIT:
+				paintLine(g2d, s.decimator, width);
+				break;
+			case SCATTER:
+				for (int k = 0; k < s.pixelCount; k++)
+					if (s.pixelX[k] != Series.NO_PIXEL)
+						g2d.drawOval(s.pixelX[k] - 1, s.pixelY[k] - 1, 2, 2);
+				break;
+			case BAR:
+				paintBars(g2d, s, p2D);
+				break;
+			case SEGMENTS:
+				//Should only connect every other set of consecutive points
+				int previous = -1;
+				int valid = 0;
+				for (int k = 0; k < s.pixelCount; k++) {
+					if (!s.isValid(s.pixelFrom + k))
+						continue;
+					if (valid % 2 == 1 && s.pixelX[previous] != Series.NO_PIXEL && s.pixelX[k] != Series.NO_PIXEL)
+						g2d.drawLine(s.pixelX[previous], s.pixelY[previous], s.pixelX[k], s.pixelY[k]);
+					previous = k;
+					valid++;
 				}
+				break;
 			}
-			
 		}
 		g2d.setStroke(new BasicStroke(2.0f));
 		
+		g2d.setColor(Color.BLACK);
+		g2d.drawString(caption, leftMargin + 20, topMargin + 20);
+		
+		g2d.setClip(new Rectangle(0, 0, (int)plot_area.getWidth() + leftMargin + rightMargin, (int)plot_area.getHeight() + topMargin + bottomMargin));
+		
+		// box around plot
+		g2d.drawRect(leftMargin, topMargin, width, height);
+		
+	}
+	
+	/**
+	 * Paints the parts that change with the mouse: the tracker, the selection region and the legend.
+	 */
+	public void paintOverlay(Graphics g) {
+		Graphics2D g2d = (Graphics2D) g;
+		Shape clip = g2d.getClip();
+		
+		int width = getWidth() - leftMargin - rightMargin;
+		int height = getHeight() - bottomMargin - topMargin;
+		
+		// inside the plot area without the box around it
+		g2d.clip(new Rectangle2D.Double(leftMargin + 1, topMargin + 1, width - 2, height - 2));
+		
+		g2d.setStroke(new BasicStroke(2.0f));
+		
+		// find the point closest to the mouse
+		if (!pointIndexValid) {
+			pointIndex.build(series, -TRACKER_RADIUS, -TRACKER_RADIUS, getWidth() + 2 * TRACKER_RADIUS, getHeight() + 2 * TRACKER_RADIUS);
+			pointIndexValid = true;
+		}
+		
+		hasTrackedPoint = pointIndex.find(mousePosition.x, mousePosition.y, TRACKER_RADIUS);
+		if (hasTrackedPoint) {
+			Series s = series.get(pointIndex.foundPlot);
+			selectedCoordinate.setLocation(s.x(pointIndex.foundIndex), s.y(pointIndex.foundIndex));
+		}
+		
 		// draw selected point
-		if (mousePosition.distance(selectedPoint) < 100 && show_tracker) {
+		if (hasTrackedPoint && show_tracker) {
 			g2d.setColor(Color.RED);
-			g2d.drawOval(selectedPoint.x - 3, selectedPoint.y - 3, 6, 6);
-			g2d.drawString(String.format("%." + xaxis_precision + "f, %." + yaxis_precision + "f", selectedCoordinate.x, selectedCoordinate.y), selectedPoint.x - 3, selectedPoint.y - 3);
+			g2d.drawOval(pointIndex.foundX - 3, pointIndex.foundY - 3, 6, 6);
+			g2d.drawString(String.format("%." + xaxis_precision + "f, %." + yaxis_precision + "f", selectedCoordinate.x, selectedCoordinate.y), pointIndex.foundX - 3, pointIndex.foundY - 3);
 		}
 		
 		// draw selection region
@@ -825,13 +815,7 @@ public class Plot extends JComponent implements ActionListener {
 
 		}
 		
-		g2d.setColor(Color.BLACK);
-		g2d.drawString(caption, leftMargin + 20, topMargin + 20);
-		
-		g2d.setClip(new Rectangle(0, 0, (int)plot_area.getWidth() + leftMargin + rightMargin, (int)plot_area.getHeight() + topMargin + bottomMargin));
-		
-		// box around plot
-		g2d.drawRect(leftMargin, topMargin, width, height);
+		g2d.setClip(clip);
 		
 		if (legend_text != null & show_legend) {
 			g.setFont(legend_font);
@@ -866,6 +850,61 @@ public class Plot extends JComponent implements ActionListener {
 		} 
 		
 	}
+
+	//Draws a BAR plot, one bar per valid point, as wide as the spacing of the first two points
+	private void paintBars(Graphics2D g2d, Series s, Path2D p2D) {
+		double scaleX = transform.getScaleX();
+		double translateX = transform.getTranslateX();
+		double scaleY = transform.getScaleY();
+		double translateY = transform.getTranslateY();
+		
+		int first = s.nextValid(0);
+		int second = s.nextValid(first + 1);
+		double barWidth = (second < s.length()) ? (s.x(second) * scaleX + translateX) - (s.x(first) * scaleX + translateX) : 0;
+		
+		for (int i = first; i < s.length(); i = s.nextValid(i + 1)) {
+			double px = s.x(i) * scaleX + translateX;
+			double py = s.y(i) * scaleY + translateY;
+			Rectangle2D r1 = new Rectangle2D.Double(
+					px + (gap-0.5)*barWidth,
+					py,
+					(1 - 2*gap)*barWidth,
+					(translateY - py));
+			
+			if (s.style.equals(Style.SOLID)) {
+				g2d.fill(r1);
+				g2d.setColor(Color.BLACK);
+				if (s.lineWidth != 0)
+					g2d.draw(r1);
+				g2d.setColor(s.color);
+			} else {
+				g2d.setColor(Color.WHITE);
+				g2d.fill(r1);
+				g2d.setColor(s.color);
+				g2d.draw(r1);
+			}
+			p2D.append(r1, false);
+		}
+	}
+	
+	//Draws the points of a LINE or FIT plot that remain after reducing them to the visible pixel columns
+	private void paintLine(Graphics2D g2d, LineDecimator decimator, int width) {
+		decimator.update(transform.getScaleX(), transform.getTranslateX(), leftMargin, leftMargin + width);
+		
+		int n = decimator.getCount();
+		if (linePixels.length < n * 2)
+			linePixels = new double[n * 2];
+		
+		transform.transform(decimator.getPoints(), 0, linePixels, 0, n);
+		
+		for (int j = 0; j + 2 < n * 2; j += 2) {
+			if (!Double.isNaN(linePixels[j]) 
+					&& !Double.isNaN(linePixels[j+1])
+					&& !Double.isNaN(linePixels[j+2])
+					&& !Double.isNaN(linePixels[j+3]))
+				g2d.drawLine((int)linePixels[j], (int)linePixels[j + 1], (int)linePixels[j + 2], (int)linePixels[j + 3]);
+		}
+	}
 	
 	@Override
 	public void paint(Graphics g) {
@@ -886,17 +925,72 @@ public class Plot extends JComponent implements ActionListener {
 		transform.scale(width / bounds.width, -height / bounds.height);
 		transform.translate(-bounds.x, -bounds.y);
 		
-		// transform all plot coordinates to pixel coordinates
-		for (int i = 0; i < plotCoordinates.size(); i++) {
-			double[] src = plotCoordinates.get(i);
-			double[] dst = pixelCoordinates.get(i);
-			
-			transform.transform(src, 0, dst, 0, src.length / 2);
+		// transform all plot coordinates to pixel coordinates, unless only the mouse moved
+		if (!transform.equals(pixelTransform)) {
+			for (Series s : series)
+				s.updatePixels(transform, -TRACKER_RADIUS, getWidth() + TRACKER_RADIUS);
+			pixelTransform = transform;
+			pointIndexValid = false;
 		}
 		
 		g.setFont(font);
-		paintAxis(g);
-		paintPlot(g);
+		paintLayer((Graphics2D) g);
+		paintOverlay(g);
+	}
+	
+	//Draws the axes and curves from the cached layer, redrawing it first if anything changed.
+	private void paintLayer(Graphics2D g2d) {
+		// draw in device pixels so the layer stays sharp on scaled displays
+		double scaleX = Math.abs(g2d.getTransform().getScaleX());
+		double scaleY = Math.abs(g2d.getTransform().getScaleY());
+		int width = getWidth();
+		int height = getHeight();
+		
+		if (width <= 0 || height <= 0 || scaleX == 0 || scaleY == 0) {
+			paintAxis(g2d);
+			paintPlot(g2d);
+			return;
+		}
+		
+		if (layer == null || layerVersion != version || !transform.equals(layerTransform) || layerWidth != width 
+				|| layerHeight != height || layerScaleX != scaleX || layerScaleY != scaleY) {
+			int imageWidth = (int)Math.ceil(width * scaleX);
+			int imageHeight = (int)Math.ceil(height * scaleY);
+			
+			if (layer == null || layer.getWidth() != imageWidth || layer.getHeight() != imageHeight) {
+				if (getGraphicsConfiguration() != null)
+					layer = getGraphicsConfiguration().createCompatibleImage(imageWidth, imageHeight, Transparency.TRANSLUCENT);
+				else
+					layer = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+			}
+			
+			Graphics2D lg = layer.createGraphics();
+			lg.setComposite(AlphaComposite.Clear);
+			lg.fillRect(0, 0, imageWidth, imageHeight);
+			lg.setComposite(AlphaComposite.SrcOver);
+			
+			lg.setRenderingHints(g2d.getRenderingHints());
+			// subpixel text needs an opaque background
+			Object textAntialiasing = lg.getRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING);
+			if (textAntialiasing != null && textAntialiasing != RenderingHints.VALUE_TEXT_ANTIALIAS_OFF 
+					&& textAntialiasing != RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT)
+				lg.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			
+			lg.scale(scaleX, scaleY);
+			lg.setFont(font);
+			paintAxis(lg);
+			paintPlot(lg);
+			lg.dispose();
+			
+			layerTransform = transform;
+			layerWidth = width;
+			layerHeight = height;
+			layerScaleX = scaleX;
+			layerScaleY = scaleY;
+			layerVersion = version;
+		}
+		
+		g2d.drawImage(layer, 0, 0, width, height, null);
 	}
 	
 	public void updatePlotBoundaries(Graphics g) {
@@ -1119,7 +1213,7 @@ public class Plot extends JComponent implements ActionListener {
 		gPanel.add(new JLabel("Curves:"), gbc);
 		
 		ArrayList<JPanel> plotPanels = new ArrayList<JPanel>();
-		for (int i=0; i<plotCoordinates.size() ; i++) {
+		for (int i=0; i<series.size() ; i++) {
 			JPanel plotpref = plotPrefPpanel(i);
 			gbc.gridy += 1;
 			gPanel.add(plotpref, gbc);
@@ -1224,8 +1318,8 @@ public class Plot extends JComponent implements ActionListener {
 				 
 				 for (int w = plotPanels.size() - 1; w >= 0; w--) {
 					JPanel pan = plotPanels.get(w);
-					plotColors.set(w, getColorFromName((String)((JComboBox)pan.getComponent(1)).getSelectedItem()));
-					plotLineWidths.set(w, Float.parseFloat(((JTextField)pan.getComponent(2)).getText()));
+					series.get(w).color = getColorFromName((String)((JComboBox)pan.getComponent(1)).getSelectedItem());
+					series.get(w).lineWidth = Float.parseFloat(((JTextField)pan.getComponent(2)).getText());
 				}
 				 
 				if (!text_Legend_Area.equals("")) {
@@ -1313,6 +1407,7 @@ public class Plot extends JComponent implements ActionListener {
 				Prefs.set("plot.legend_box", legend_box);
 				Prefs.set("plot.show_tracker", show_tracker);
 
+				invalidateLayer();
 				repaint();
 			
 		     } else if (pane.getValue().equals(JOptionPane.CANCEL_OPTION)) {
@@ -1322,7 +1417,7 @@ public class Plot extends JComponent implements ActionListener {
 	}
 	
 	private String getTypeName(int index) {
-		switch (plotTypes.get(index)) {
+		switch (series.get(index).type) {
 		case LINE:
 			return "Line - ";
 		case SCATTER:
@@ -1377,13 +1472,13 @@ public class Plot extends JComponent implements ActionListener {
 	
 	private JPanel plotPrefPpanel(int index) {
 		JPanel plotpan = new JPanel();
-		plotpan.add(new JLabel(getTypeName(index) + plotNames.get(index)));
+		plotpan.add(new JLabel(getTypeName(index) + series.get(index).name));
 		JComboBox color_choice = new JComboBox(colors);
-		color_choice.setSelectedItem(getNameFromColor(plotColors.get(index)));
+		color_choice.setSelectedItem(getNameFromColor(series.get(index).color));
 		plotpan.add(color_choice);
 		JTextField LineWidth = new JTextField();
 		LineWidth.setColumns(4);
-		LineWidth.setText(plotLineWidths.get(index).toString());
+		LineWidth.setText(Float.toString(series.get(index).lineWidth));
 		plotpan.add(LineWidth);
 		return plotpan;
 	}
@@ -1410,8 +1505,7 @@ public class Plot extends JComponent implements ActionListener {
 				return;
 		}
 		
-		BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
-		paint(image.createGraphics());
+		BufferedImage image = paintImage();
 		
 		try {
 			ImageIO.write(image, "png", file);
@@ -1421,6 +1515,26 @@ public class Plot extends JComponent implements ActionListener {
 		}
 	}
 	
+	/**
+	 * @return the plot painted at its current size.
+	 */
+	public BufferedImage paintImage() {
+		BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2d = image.createGraphics();
+		paint(g2d);
+		g2d.dispose();
+		return image;
+	}
+	
+	void setShowTracker(boolean show_tracker) {
+		this.show_tracker = show_tracker;
+	}
+	
+	//Margins are fitted to the axis labels again on the next paint
+	void invalidateMargins() {
+		updatePlotBoundaries = true;
+	}
+	
 	public BufferedImage getImage(int width, int height) {
 		JFrame frame = new JFrame();
 		frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
@@ -1442,12 +1556,14 @@ public class Plot extends JComponent implements ActionListener {
 	}
 	
 	public void copyPlot() {
+		//the text is only generated when it is pasted
+		ArrayList<Series> data = new ArrayList<Series>(series);
 		
 		Transferable transferable = new Transferable() {
 			
 			@Override
 			public boolean isDataFlavorSupported(DataFlavor flavor) {
-				return DataFlavor.imageFlavor.equals(flavor);
+				return DataFlavor.imageFlavor.equals(flavor) || DataFlavor.stringFlavor.equals(flavor);
 			}
 			
 			@Override
@@ -1469,16 +1585,20 @@ public class Plot extends JComponent implements ActionListener {
 			        return image;
 				}
 				else if (flavor.equals(DataFlavor.stringFlavor)) {
-					String csv = "";
+					StringWriter text = new StringWriter();
+					DelimitedTextWriter writer = new DelimitedTextWriter(text, '\t', "\n");
 					
-					for (int i = 0; i < plotCoordinates.size(); i++) {
-						double[] values = plotCoordinates.get(i);
+					for (int i = 0; i < data.size(); i++) {
+						Series s = data.get(i);
 						
-						for (int j = 0; j < values.length; j += 2)
-							csv += String.format("%d\t%f\t%f\n", i, values[j], values[j + 1]);
+						for (int j = s.nextValid(0); j < s.length(); j = s.nextValid(j + 1)) {
+							writer.writeField(i).writeField(s.x(j)).writeField(s.y(j));
+							writer.endRow();
+						}
 					}
+					writer.flush();
 					
-					return csv;
+					return text.toString();
 				}
 				else {
 					throw new UnsupportedFlavorException(flavor);
@@ -1511,22 +1631,72 @@ public class Plot extends JComponent implements ActionListener {
 				return;
 		}
 		
-		try {
-			FileOutputStream fos = new FileOutputStream(file);
-			
-			fos.write("dataset,row,x,y\r\n".getBytes("utf-8"));
-			
-			for (int i = 0; i < plotCoordinates.size(); i++) {
-				double[] values = plotCoordinates.get(i);
+		// the data is written in the background
+		File outputFile = file;
+		ArrayList<Series> data = new ArrayList<Series>(series);
+		long total = 0;
+		for (Series s : data)
+			total += s.validCount();
+		long rows = total;
+		
+		AtomicBoolean canceled = new AtomicBoolean(false);
+		ProgressMonitor progressMonitor = new ProgressMonitor(this, "Exporting " + file.getName(), "", 0, 100);
+		
+		SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws Exception {
+				long written = 0;
+				
+				try (DelimitedTextWriter writer = new DelimitedTextWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8), ',', "\r\n")) {
+					writer.writeField("dataset").writeField("row").writeField("x").writeField("y");
+					writer.endRow();
+					
+					for (int i = 0; i < data.size() && !canceled.get(); i++) {
+						Series s = data.get(i);
+						
+						// rows with NaN values are left out, the row column counts only the others
+						int row = 0;
+						for (int j = s.nextValid(0); j < s.length(); j = s.nextValid(j + 1)) {
+							writer.writeField(i).writeField(row).writeField(s.x(j)).writeField(s.y(j));
+							writer.endRow();
+							row += 2;
+							
+							if (++written % 10000 == 0) {
+								if (canceled.get())
+									break;
+								setProgress((int)(100 * written / rows));
+							}
+						}
+					}
+				}
 				
-				for (int j = 0; j < values.length; j += 2)
-					fos.write(String.format("%d,%d,%f,%f\r\n", i, j, values[j], values[j + 1]).getBytes("utf-8"));
+				if (canceled.get())
+					outputFile.delete();
+				
+				return null;
 			}
 			
-			fos.close();
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(this, String.format("could not export data : %s", e.getMessage()), "Exception", JOptionPane.ERROR_MESSAGE);
-		}
+			@Override
+			protected void done() {
+				progressMonitor.close();
+				try {
+					get();
+				} catch (ExecutionException e) {
+					JOptionPane.showMessageDialog(Plot.this, String.format("could not export data : %s", e.getCause().getMessage()), "Exception", JOptionPane.ERROR_MESSAGE);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		
+		worker.addPropertyChangeListener(event -> {
+			if ("progress".equals(event.getPropertyName()))
+				progressMonitor.setProgress((Integer) event.getNewValue());
+			if (progressMonitor.isCanceled())
+				canceled.set(true);
+		});
+		
+		worker.execute();
 	}
 	
 	private ArrayList<BoundsChangedListener> listeners =  new ArrayList<BoundsChangedListener>();
@@ -1552,6 +1722,7 @@ public class Plot extends JComponent implements ActionListener {
 	
 	public void setPlotTitle(String plotTitle) {
 		this.plotTitle = plotTitle;
+		invalidateLayer();
 	}
 	
 	public void setMolecule(Molecule molecule) {
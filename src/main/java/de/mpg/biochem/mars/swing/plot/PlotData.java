@@ -45,8 +45,9 @@ public class PlotData {
 	public MarsTable table;
 	public double[] xs, seg_xs;
 	public double[] ys, seg_ys;
-	public Map<Integer, GroupIndices> GroupIndex, SegmentGroupIndex;
-	public ArrayList<Integer> groupNumbers;
+	
+	//Shared with all PlotData of the same table and group column
+	public TableGroupIndex groupIndex;
 	
 	//Add color setting?
 	public Color color = Color.black;
@@ -74,61 +75,64 @@ public class PlotData {
 		
 		if (!groupColumn.equals("none")) {
 			hasGroups = true;
-			GroupIndex = MarsTableService.find_group_indices(table, groupColumn);
-			groupNumbers = new ArrayList<Integer>();
-			
-			//Let's get a list of all GroupNumbers (usually molecule numbers)
-			Object[] Allkeys = GroupIndex.keySet().toArray();
-			for (int i=0;i < Allkeys.length;i++) {
-				groupNumbers.add((int)Allkeys[i]);
-			}
+			groupIndex = TableGroupIndex.get(table, groupColumn);
 		} else {
 			hasGroups = false;
 		}
 	}
 	
 	public void drawCurve(Plot plot, int group) {
+		Series series = createSeries(group);
+		if (series != null)
+			plot.addSeries(series);
+	}
+	
+	/**
+	 * Creates the curve of a group without adding it to a plot. The series is a 
+	 * view on xs and ys, so this can be called from any thread.
+	 * 
+	 * @return null if the curve type is unknown.
+	 */
+	Series createSeries(int group) {
 		String curveName = tableTitle + " - " + yColumn + " vs " + xColumn; 
 		
+		int from = 0;
+		int to = xs.length;
 		if (hasGroups) {
-			switch (type) {
-			case 0:	// line plot
-				plot.addLinePlot(xs, ys, GroupIndex.get(groupNumbers.get(group)).getStart(), GroupIndex.get(groupNumbers.get(group)).getEnd() + 1, getColor(), 1.0f, curveName);
-				break;
-			case 1:	// scatter plot
-				plot.addScatterPlot(xs, ys, GroupIndex.get(groupNumbers.get(group)).getStart(), GroupIndex.get(groupNumbers.get(group)).getEnd() + 1, getColor(), 1.0f, curveName);
-				break;
-			case 2: //Bar graph
-				plot.addBarGraph(xs, ys, GroupIndex.get(groupNumbers.get(group)).getStart(), GroupIndex.get(groupNumbers.get(group)).getEnd() + 1, getColor(), 1.0f, curveName);
-				break;
-			}
-		} else {
-			switch (type) {
-			case 0:	// line plot
-				plot.addLinePlot(xs, ys, 0, xs.length, getColor(), 1.0f, curveName);
-				break;
-			case 1:	// scatter plot
-				plot.addScatterPlot(xs, ys, 0, xs.length, getColor(), 1.0f, curveName);
-				break;
-			case 2: //Bar graph
-				plot.addBarGraph(xs, ys, 0, xs.length, getColor(), 1.0f, curveName);
-				break;
-			}
+			from = groupIndex.getStart(group);
+			to = groupIndex.getEnd(group) + 1;
 		}
+		
+		switch (type) {
+		case 0:	// line plot
+			return new Series(xs, ys, from, to - from, Plot.Type.LINE, getColor(), 1.0f, curveName);
+		case 1:	// scatter plot
+			return new Series(xs, ys, from, to - from, Plot.Type.SCATTER, getColor(), 1.0f, curveName);
+		case 2: //Bar graph
+			return new Series(xs, ys, from, to - from, Plot.Type.BAR, getColor(), 1.0f, curveName);
+		}
+		return null;
 	}
 	  
 	public int getGroupStartRow(int group) {
-		return GroupIndex.get(groupNumbers.get(group)).getStart();
+		return groupIndex.getStart(group);
 	}
 	
 	public int getGroupEndRow(int group) {
-		return GroupIndex.get(groupNumbers.get(group)).getEnd();
+		return groupIndex.getEnd(group);
 	}
 	
 	public Color getColor() {
 		return color;
 	}
 	
+	//Gives a series of this data the style of a newly created one again
+	void resetStyle(Series series) {
+		series.color = getColor();
+		series.lineWidth = 1.0f;
+		series.style = Plot.Style.SOLID;
+	}
+	
 	public Color getSegmentsColor() {
 		return segments_color;
 	}
@@ -138,15 +142,15 @@ public class PlotData {
 	}
 	
 	public int numberGroups() {
-		return GroupIndex.size();
+		return groupIndex.size();
 	}
 	
 	public int getGroupNumber(int groupNumIndex) {
-		return groupNumbers.get(groupNumIndex);
+		return groupIndex.getGroupNumber(groupNumIndex);
 	}
 	
 	public int getGroupIndex(int molecule) {
-		return groupNumbers.indexOf(molecule);
+		return groupIndex.indexOf(molecule);
 	}
 	
 	public String xColumnName() {
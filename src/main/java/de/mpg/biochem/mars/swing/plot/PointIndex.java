@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Nearest point lookup for the plot tracker. Points are bucketed by their integer pixel
+ * position into a grid of small cells. A point that lands on a pixel already taken by an
+ * earlier point is dropped, since the earlier one always wins a tie. Queries only visit
+ * cells within the search radius, so their cost depends on how many distinct pixels are
+ * covered near the mouse and not on the number of points.
+ */
+class PointIndex {
+	
+	private static final int CELL_SIZE = 8;
+	
+	//Covered pixel region and grid
+	private int originX, originY, width, height;
+	private int columns, rows;
+	private int[] cellStart = new int[1];
+	
+	//Points sorted by cell, in plot order within a cell
+	private int[] pointX = new int[0];
+	private int[] pointY = new int[0];
+	private int[] pointPlot = new int[0];
+	private int[] pointIndex = new int[0];
+	private int[] pointOrder = new int[0];
+	
+	//Build buffers in plot order
+	private int[] bufferX = new int[0];
+	private int[] bufferY = new int[0];
+	private int[] bufferPlot = new int[0];
+	private int[] bufferIndex = new int[0];
+	private int[] bufferCell = new int[0];
+	private long[] occupied = new long[0];
+	
+	//Result of the last find
+	int foundPlot, foundIndex, foundX, foundY;
+	
+	/**
+	 * Indexes the pixel positions of all series that fall into the given region.
+	 */
+	void build(List<Series> series, int originX, int originY, int width, int height) {
+		this.originX = originX;
+		this.originY = originY;
+		this.width = width;
+		this.height = height;
+		columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+		rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+		
+		int pixels = width * height;
+		if (occupied.length < (pixels + 63) / 64)
+			occupied = new long[(pixels + 63) / 64];
+		else
+			Arrays.fill(occupied, 0, (pixels + 63) / 64, 0);
+		
+		if (cellStart.length < columns * rows + 1)
+			cellStart = new int[columns * rows + 1];
+		else
+			Arrays.fill(cellStart, 0, columns * rows + 1, 0);
+		
+		int n = 0;
+		for (int p = 0; p < series.size(); p++) {
+			Series s = series.get(p);
+			
+			for (int j = 0; j < s.pixelCount; j++) {
+				if (s.pixelX[j] == Series.NO_PIXEL)
+					continue;
+				
+				int x = s.pixelX[j] - originX;
+				int y = s.pixelY[j] - originY;
+				if (x < 0 || y < 0 || x >= width || y >= height)
+					continue;
+				
+				int pixel = y * width + x;
+				if ((occupied[pixel >>> 6] & (1L << pixel)) != 0)
+					continue;
+				occupied[pixel >>> 6] |= 1L << pixel;
+				
+				if (n == bufferX.length)
+					growBuffers();
+				
+				int cell = (y / CELL_SIZE) * columns + x / CELL_SIZE;
+				bufferX[n] = x + originX;
+				bufferY[n] = y + originY;
+				bufferPlot[n] = p;
+				bufferIndex[n] = s.pixelFrom + j;
+				bufferCell[n] = cell;
+				cellStart[cell + 1]++;
+				n++;
+			}
+		}
+		
+		for (int c = 0; c < columns * rows; c++)
+			cellStart[c + 1] += cellStart[c];
+		
+		if (pointX.length < n) {
+			pointX = new int[bufferX.length];
+			pointY = new int[bufferX.length];
+			pointPlot = new int[bufferX.length];
+			pointIndex = new int[bufferX.length];
+			pointOrder = new int[bufferX.length];
+		}
+		
+		// counting sort by cell, stable so the plot order is kept within cells
+		int[] next = Arrays.copyOf(cellStart, columns * rows);
+		for (int i = 0; i < n; i++) {
+			int k = next[bufferCell[i]]++;
+			pointX[k] = bufferX[i];
+			pointY[k] = bufferY[i];
+			pointPlot[k] = bufferPlot[i];
+			pointIndex[k] = bufferIndex[i];
+			pointOrder[k] = i;
+		}
+	}
+	
+	private void growBuffers() {
+		int capacity = Math.max(1024, bufferX.length * 2);
+		bufferX = Arrays.copyOf(bufferX, capacity);
+		bufferY = Arrays.copyOf(bufferY, capacity);
+		bufferPlot = Arrays.copyOf(bufferPlot, capacity);
+		bufferIndex = Arrays.copyOf(bufferIndex, capacity);
+		bufferCell = Arrays.copyOf(bufferCell, capacity);
+	}
+	
+	/**
+	 * Looks for the point closest to x, y that is less than radius pixels away. On ties 
+	 * the point added first wins. The point is left in the found fields.
+	 * 
+	 * @return true if a point was found.
+	 */
+	boolean find(int x, int y, int radius) {
+		long best = (long)radius * radius;
+		int bestOrder = Integer.MAX_VALUE;
+		int bestPoint = -1;
+		
+		int fromColumn = Math.max(0, Math.floorDiv(x - radius - originX, CELL_SIZE));
+		int toColumn = Math.min(columns - 1, Math.floorDiv(x + radius - originX, CELL_SIZE));
+		int fromRow = Math.max(0, Math.floorDiv(y - radius - originY, CELL_SIZE));
+		int toRow = Math.min(rows - 1, Math.floorDiv(y + radius - originY, CELL_SIZE));
+		
+		for (int row = fromRow; row <= toRow; row++) {
+			int top = originY + row * CELL_SIZE;
+			long dy = Math.max(0, Math.max(top - y, y - (top + CELL_SIZE - 1)));
+			
+			for (int column = fromColumn; column <= toColumn; column++) {
+				int left = originX + column * CELL_SIZE;
+				long dx = Math.max(0, Math.max(left - x, x - (left + CELL_SIZE - 1)));
+				
+				// skip cells that can't hold a closer point
+				if (dx * dx + dy * dy > best)
+					continue;
+				
+				int cell = row * columns + column;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					long px = pointX[k] - x;
+					long py = pointY[k] - y;
+					long distance = px * px + py * py;
+					if (distance < best || (distance == best && bestPoint != -1 && pointOrder[k] < bestOrder)) {
+						best = distance;
+						bestOrder = pointOrder[k];
+						bestPoint = k;
+					}
+				}
+			}
+		}
+		
+		if (bestPoint == -1)
+			return false;
+		
+		foundPlot = pointPlot[bestPoint];
+		foundIndex = pointIndex[bestPoint];
+		foundX = pointX[bestPoint];
+		foundY = pointY[bestPoint];
+		return true;
+	}
+}
@@ -33,17 +33,24 @@ import java.awt.Rectangle;
 import java.awt.TextField;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Map;
 
+import javax.swing.AbstractAction;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JRootPane;
+import javax.swing.JScrollPane;
+import javax.swing.KeyStroke;
 
 import ij.IJ;
 import ij.gui.Roi;
@@ -72,12 +79,14 @@ public class ResultsPlotter implements ActionListener {
 	private JButton previousButton = new JButton("previous");
 	private JButton nextButton = new JButton("next");
 	private JButton saveButton = new JButton("save");
+	private JButton saveAllButton = new JButton("save all");
 	//private JButton Delete = new JButton("Delete");
 	//private JButton Process = new JButton("Update Table");
 	private JButton setPath = new JButton("path");
 	//private JButton showROI = new JButton("show");
 	private JLabel label = new JLabel();
 	private JCheckBox fixBoundsCheckBox = new JCheckBox("fix bounds", false);
+	private JCheckBox gridCheckBox = new JCheckBox("grid", false);
 	
 	private JButton goTo = new JButton("Go To");
 	private TextField trajSelection = new TextField(IJ.d2s(1, 0), 8);
@@ -92,16 +101,26 @@ public class ResultsPlotter implements ActionListener {
 	//PlotData is defined in util.
 	ArrayList<PlotData> plot_data = new ArrayList<PlotData>();
 	
+	//Prepares the curves of the neighbouring groups in the background
+	private GroupNavigator navigator;
+	
+	//Thumbnails of all groups, only created when the grid is shown
+	private GroupGridPanel gridPanel;
+	private JScrollPane gridScrollPane;
+	private JPanel whitePLOT;
+	
 	public ResultsPlotter(ArrayList<PlotData> plot_data_in, String tableTitle_in, String groupColumn_in) {
 		plot_data = plot_data_in;
 		tableTitle = tableTitle_in;
 		groupColumn = groupColumn_in;
+		navigator = new GroupNavigator(plot_data);
 		
 		JPanel panel = new JPanel();
 		
 		//Either all plot_data sets have groups or none d0, so we only need to check one curve set.
 		if (plot_data.get(0).hasGroups()) {
 			panel.add(fixBoundsCheckBox);
+			panel.add(gridCheckBox);
 			panel.add(previousButton);
 			panel.add(nextButton);
 			//panel.add(Delete);
@@ -109,18 +128,21 @@ public class ResultsPlotter implements ActionListener {
 			panel.add(setPath);
 			//panel.add(showROI);
 			panel.add(saveButton);
+			panel.add(saveAllButton);
 			panel.add(goTo);
 			panel.add(new JLabel(groupColumn));
 			panel.add(trajSelection);
 			panel.add(label);
 			
 			previousButton.addActionListener(this);
+			gridCheckBox.addActionListener(this);
 			nextButton.addActionListener(this);
 			//Delete.addActionListener(this);
 			//Process.addActionListener(this);
 			setPath.addActionListener(this);
 			//showROI.addActionListener(this);
 			saveButton.addActionListener(this);
+			saveAllButton.addActionListener(this);
 			goTo.addActionListener(this);
 		} else {
 			panel.add(saveButton);
@@ -132,6 +154,37 @@ public class ResultsPlotter implements ActionListener {
 		JFrame plotFrame = new JFrame("Plot - " + tableTitle);
 		plotFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		plotFrame.setSize(800, 800);
+		plotFrame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				navigator.shutdown();
+				if (gridPanel != null)
+					gridPanel.shutdown();
+			}
+		});
+		
+		//Browse the groups with the arrow keys, holding them down scrolls through
+		if (plot_data.get(0).hasGroups()) {
+			JRootPane rootPane = plotFrame.getRootPane();
+			rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("LEFT"), "previous");
+			rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("RIGHT"), "next");
+			rootPane.getActionMap().put("previous", new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					previous();
+				}
+			});
+			rootPane.getActionMap().put("next", new AbstractAction() {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					next();
+				}
+			});
+		}
 		
 		//plotFrame.setBackground(Color.WHITE);
 		//panel.setBackground(Color.WHITE);
@@ -144,7 +197,7 @@ public class ResultsPlotter implements ActionListener {
 		contentPane.setLayout(new BorderLayout());
 		contentPane.add(buttonPane, BorderLayout.SOUTH);
 		
-		JPanel whitePLOT = new JPanel();
+		whitePLOT = new JPanel();
 		whitePLOT.setBackground(Color.WHITE);
 		whitePLOT.setLayout(new BorderLayout());
 		whitePLOT.add(plot, BorderLayout.CENTER);
@@ -164,9 +217,8 @@ public class ResultsPlotter implements ActionListener {
 			plot.setGroup(groupColumn, plot_data.get(0).getGroupNumber(group));
 		}
 		
-		for (int i = 0; i < plot_data.size() ; i++) {
-			plot_data.get(i).drawCurve(plot, group);
-		}
+		for (Series series : navigator.getSeries(group))
+			plot.addSeries(series);
 		
 		if (!fixBoundsCheckBox.isSelected())
 			plot.resetBounds();
@@ -185,16 +237,54 @@ public class ResultsPlotter implements ActionListener {
 		
 		plot.repaint();
 	}
-
-	@Override
-	public void actionPerformed(ActionEvent e) {
-		if (e.getSource() == previousButton && group > 0) {
+	
+	private void showGrid(boolean grid) {
+		if (grid && gridPanel == null) {
+			gridPanel = new GroupGridPanel(plot_data, groupColumn, selected -> {
+				group = selected;
+				showPlot();
+				gridCheckBox.setSelected(false);
+				showGrid(false);
+			});
+			gridScrollPane = new JScrollPane(gridPanel);
+		}
+		
+		whitePLOT.removeAll();
+		if (grid) {
+			whitePLOT.add(gridScrollPane, BorderLayout.CENTER);
+			whitePLOT.validate();
+			gridPanel.showGroup(group);
+		} else {
+			whitePLOT.add(plot, BorderLayout.CENTER);
+		}
+		whitePLOT.revalidate();
+		whitePLOT.repaint();
+	}
+	
+	private void previous() {
+		if (group > 0) {
 			group--;
 			showPlot();
 		}
-		else if (e.getSource() == nextButton && group < plot_data.get(0).numberGroups() - 1) {
+	}
+	
+	private void next() {
+		if (group < plot_data.get(0).numberGroups() - 1) {
 			group++;
 			showPlot();
+		}
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (e.getSource() == gridCheckBox) {
+			showGrid(gridCheckBox.isSelected());
+		}
+		else if (e.getSource() == previousButton) {
+			previous();
+		}
+		else if (e.getSource() == nextButton) {
+			next();
 		} else if (e.getSource() == setPath) {
 			JFileChooser fileChooser = new JFileChooser(default_path);
 			
@@ -220,6 +310,18 @@ public class ResultsPlotter implements ActionListener {
  		   
  		    File imageName = new File(default_path.getPath() + gNum + ".png");
  		    plot.savePlot(imageName);
+		} else if (e.getSource() == saveAllButton) {
+			if (default_path == null) {
+				JFileChooser fileChooser = new JFileChooser(default_path);
+				
+				if (fileChooser.showSaveDialog(plot) == JFileChooser.APPROVE_OPTION) {
+					default_path = fileChooser.getSelectedFile();
+				} else {
+					return;
+				}
+			}
+			
+			new GroupExporter(plot_data, groupColumn, plot, fixBoundsCheckBox.isSelected()).run(plot, default_path);
 		} else if (e.getSource() == goTo) {
 			String theText = trajSelection.getText();
 			int molecule = Integer.valueOf(theText);
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * One dataset of a Plot. The x and y values are views on the caller's arrays from 
+ * offset to offset + length. They are not copied, so the arrays must not be modified 
+ * while the series is plotted. Rows with a NaN in x or y are marked in a mask and 
+ * skipped everywhere. Pixel positions are only kept for the rows in view.
+ */
+class Series {
+	
+	//Pixel value of rows that are masked or can't be transformed
+	static final int NO_PIXEL = Integer.MIN_VALUE;
+	
+	private final double[] x;
+	private final double[] y;
+	private final int offset;
+	private final int length;
+	
+	//Bit set of rows with NaN values, null if there are none
+	private final long[] nanMask;
+	private final int validCount;
+	private final boolean monotonic;
+	
+	//Envelope of the valid rows, including the full width and height of bars
+	private final Rectangle2D.Double bounds;
+	
+	Plot.Type type;
+	Color color;
+	float lineWidth;
+	Plot.Style style = Plot.Style.SOLID;
+	String name;
+	
+	//Only for LINE and FIT series
+	final LineDecimator decimator;
+	
+	//Pixel positions of the rows pixelFrom to pixelFrom + pixelCount
+	int pixelFrom, pixelCount;
+	int[] pixelX = new int[0];
+	int[] pixelY = new int[0];
+	
+	Series(double[] x, double[] y, int offset, int length, Plot.Type type, Color color, float lineWidth, String name) {
+		this.x = x;
+		this.y = y;
+		this.offset = offset;
+		this.length = length;
+		this.type = type;
+		this.color = color;
+		this.lineWidth = lineWidth;
+		this.name = name;
+		
+		long[] mask = null;
+		int valid = 0;
+		boolean increasing = true;
+		double previous = Double.NEGATIVE_INFINITY;
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < length; i++) {
+			double xi = x[offset + i];
+			if (Double.isNaN(xi) || Double.isNaN(y[offset + i])) {
+				if (mask == null)
+					mask = new long[(length + 63) / 64];
+				mask[i >>> 6] |= 1L << i;
+				continue;
+			}
+			if (xi < previous)
+				increasing = false;
+			previous = xi;
+			valid++;
+			
+			double yi = y[offset + i];
+			minX = Math.min(minX, xi);
+			maxX = Math.max(maxX, xi);
+			minY = Math.min(minY, yi);
+			maxY = Math.max(maxY, yi);
+		}
+		nanMask = mask;
+		validCount = valid;
+		monotonic = increasing;
+		
+		if (valid == 0) {
+			bounds = null;
+		} else if (type == Plot.Type.BAR) {
+			double halfWidth = Math.abs(binWidth()) / 2;
+			minY = Math.min(minY, 0);
+			maxY = Math.max(maxY, 0);
+			bounds = new Rectangle2D.Double(minX - halfWidth, minY, maxX - minX + 2 * halfWidth, maxY - minY);
+		} else {
+			bounds = new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+		}
+		
+		decimator = (type == Plot.Type.LINE || type == Plot.Type.FIT) ? new LineDecimator(this) : null;
+	}
+	
+	int length() {
+		return length;
+	}
+	
+	int validCount() {
+		return validCount;
+	}
+	
+	/**
+	 * @return the region covered by the series or null if all rows are masked.
+	 */
+	Rectangle2D.Double getBounds() {
+		return bounds;
+	}
+	
+	boolean isMonotonic() {
+		return monotonic;
+	}
+	
+	boolean isValid(int row) {
+		return nanMask == null || (nanMask[row >>> 6] & (1L << row)) == 0;
+	}
+	
+	double x(int row) {
+		return x[offset + row];
+	}
+	
+	double y(int row) {
+		return y[offset + row];
+	}
+	
+	//first valid row at or after row, length if there is none
+	int nextValid(int row) {
+		while (row < length && !isValid(row))
+			row++;
+		return row;
+	}
+	
+	//last valid row at or before row, -1 if there is none
+	int previousValid(int row) {
+		while (row >= 0 && !isValid(row))
+			row--;
+		return row;
+	}
+	
+	/**
+	 * @return the position of the first valid row with x >= value. Only meaningful for monotonic series.
+	 */
+	int lowerBound(double value) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int row = nextValid(mid);
+			if (row >= high)
+				high = mid;
+			else if (x(row) < value)
+				low = row + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	//Spacing of the first two points, used as bar width
+	double binWidth() {
+		int first = nextValid(0);
+		int second = nextValid(first + 1);
+		if (second >= length)
+			return 0;
+		return x(second) - x(first);
+	}
+	
+	/**
+	 * @return the x values of the valid rows.
+	 */
+	double[] getX() {
+		return nanMask == null ? Arrays.copyOfRange(x, offset, offset + length) : validValues(x);
+	}
+	
+	/**
+	 * @return the y values of the valid rows.
+	 */
+	double[] getY() {
+		return nanMask == null ? Arrays.copyOfRange(y, offset, offset + length) : validValues(y);
+	}
+	
+	private double[] validValues(double[] values) {
+		double[] valid = new double[validCount];
+		int k = 0;
+		for (int i = 0; i < length; i++)
+			if (isValid(i))
+				valid[k++] = values[offset + i];
+		return valid;
+	}
+	
+	/**
+	 * Transforms the rows with pixel x positions between fromPixel and toPixel, plus one 
+	 * row on either side. Series without increasing x values and segments are always
+	 * transformed completely. Pixels are truncated to integers the same way they are drawn.
+	 */
+	void updatePixels(AffineTransform transform, int fromPixel, int toPixel) {
+		double scaleX = transform.getScaleX();
+		double translateX = transform.getTranslateX();
+		double scaleY = transform.getScaleY();
+		double translateY = transform.getTranslateY();
+		
+		int from = 0;
+		int to = length - 1;
+		if (monotonic && type != Plot.Type.SEGMENTS && scaleX > 0 && !Double.isInfinite(scaleX) && !Double.isNaN(translateX)) {
+			from = Math.max(0, previousValid(lowerBound((fromPixel - translateX) / scaleX) - 1));
+			to = Math.min(length - 1, nextValid(lowerBound((toPixel + 1 - translateX) / scaleX)));
+		}
+		
+		pixelFrom = from;
+		pixelCount = Math.max(0, to - from + 1);
+		if (pixelX.length < pixelCount) {
+			pixelX = new int[pixelCount];
+			pixelY = new int[pixelCount];
+		}
+		
+		for (int k = 0; k < pixelCount; k++) {
+			int row = from + k;
+			if (!isValid(row)) {
+				pixelX[k] = NO_PIXEL;
+				pixelY[k] = NO_PIXEL;
+				continue;
+			}
+			// same arithmetic as AffineTransform for a scale and translation
+			double px = x(row) * scaleX + translateX;
+			double py = y(row) * scaleY + translateY;
+			if (Double.isNaN(px) || Double.isNaN(py)) {
+				pixelX[k] = NO_PIXEL;
+				pixelY[k] = NO_PIXEL;
+			} else {
+				pixelX[k] = (int)px;
+				pixelY[k] = (int)py;
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.plot;
+
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import de.mpg.biochem.mars.table.GroupIndices;
+import de.mpg.biochem.mars.table.MarsTable;
+import de.mpg.biochem.mars.table.MarsTableService;
+
+/**
+ * Start and end rows of the groups in a table, in the order given by 
+ * MarsTableService.find_group_indices. Indices are cached per table and group column 
+ * and shared by everyone plotting the same table. Code that changes the rows of a 
+ * table should call invalidate, a changed row count is also detected here.
+ */
+public class TableGroupIndex {
+	
+	//Group numbers are looked up in an array if they aren't spread out more than this
+	private static final int MAX_LOOKUP_SPREAD = 4;
+	
+	private static final ArrayList<CacheEntry> cache = new ArrayList<CacheEntry>();
+	
+	private static class CacheEntry {
+		final WeakReference<MarsTable> table;
+		final String groupColumn;
+		final int rowCount;
+		final TableGroupIndex index;
+		
+		CacheEntry(MarsTable table, String groupColumn, TableGroupIndex index) {
+			this.table = new WeakReference<MarsTable>(table);
+			this.groupColumn = groupColumn;
+			this.rowCount = table.getRowCount();
+			this.index = index;
+		}
+	}
+	
+	private final int[] groupNumbers;
+	private final int[] starts;
+	private final int[] ends;
+	
+	//position of group number minGroup + i, -1 if there is no such group
+	private final int minGroup;
+	private final int[] positions;
+	
+	//used instead of positions for widely spread group numbers
+	private final HashMap<Integer, Integer> sparsePositions;
+	
+	private TableGroupIndex(Map<Integer, GroupIndices> groups) {
+		int n = groups.size();
+		groupNumbers = new int[n];
+		starts = new int[n];
+		ends = new int[n];
+		
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		int i = 0;
+		for (Map.Entry<Integer, GroupIndices> entry : groups.entrySet()) {
+			groupNumbers[i] = entry.getKey();
+			starts[i] = entry.getValue().getStart();
+			ends[i] = entry.getValue().getEnd();
+			min = Math.min(min, groupNumbers[i]);
+			max = Math.max(max, groupNumbers[i]);
+			i++;
+		}
+		
+		if (n > 0 && (long)max - min < (long)MAX_LOOKUP_SPREAD * n + 1024) {
+			minGroup = min;
+			positions = new int[max - min + 1];
+			Arrays.fill(positions, -1);
+			for (int j = n - 1; j >= 0; j--)
+				positions[groupNumbers[j] - min] = j;
+			sparsePositions = null;
+		} else {
+			minGroup = 0;
+			positions = null;
+			sparsePositions = new HashMap<Integer, Integer>();
+			for (int j = n - 1; j >= 0; j--)
+				sparsePositions.put(groupNumbers[j], j);
+		}
+	}
+	
+	/**
+	 * @return the cached index of the groups in the column, which is created if needed.
+	 */
+	public static TableGroupIndex get(MarsTable table, String groupColumn) {
+		synchronized (cache) {
+			Iterator<CacheEntry> iterator = cache.iterator();
+			while (iterator.hasNext()) {
+				CacheEntry entry = iterator.next();
+				MarsTable cached = entry.table.get();
+				if (cached == null) {
+					iterator.remove();
+				} else if (cached == table && entry.groupColumn.equals(groupColumn)) {
+					if (entry.rowCount == table.getRowCount())
+						return entry.index;
+					iterator.remove();
+				}
+			}
+		}
+		
+		TableGroupIndex index = new TableGroupIndex(MarsTableService.find_group_indices(table, groupColumn));
+		
+		synchronized (cache) {
+			cache.add(new CacheEntry(table, groupColumn, index));
+		}
+		return index;
+	}
+	
+	/**
+	 * Drops the cached indices of the table.
+	 */
+	public static void invalidate(MarsTable table) {
+		synchronized (cache) {
+			Iterator<CacheEntry> iterator = cache.iterator();
+			while (iterator.hasNext()) {
+				MarsTable cached = iterator.next().table.get();
+				if (cached == null || cached == table)
+					iterator.remove();
+			}
+		}
+	}
+	
+	public int size() {
+		return groupNumbers.length;
+	}
+	
+	public int getGroupNumber(int position) {
+		return groupNumbers[position];
+	}
+	
+	public int getStart(int position) {
+		return starts[position];
+	}
+	
+	public int getEnd(int position) {
+		return ends[position];
+	}
+	
+	/**
+	 * @return the position of the group or -1 if there is no group with that number.
+	 */
+	public int indexOf(int groupNumber) {
+		if (positions != null) {
+			long i = (long)groupNumber - minGroup;
+			return (i < 0 || i >= positions.length) ? -1 : positions[(int)i];
+		}
+		Integer position = sparsePositions.get(groupNumber);
+		return (position == null) ? -1 : position;
+	}
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.scijava.table.DoubleColumn;
+
+/**
+ * Summary statistics of a DoubleColumn, ignoring NaN values. Count, mean, standard
+ * deviation, minimum and maximum are reduced in parallel over chunks of the column.
+ * Quartiles and median are exact up to EXACT_LIMIT values and come from a
+ * QuantileSketch for larger columns.
+ */
+public class ColumnStatistics {
+	
+	public static final int EXACT_LIMIT = 1 << 17;
+	
+	private static final int CHUNK = 1 << 16;
+	
+	private final long count;
+	private final double mean, std, min, max;
+	private final double lowerQuartile, median, upperQuartile;
+	private final boolean approximate;
+	
+	private ColumnStatistics(Moments moments, double lowerQuartile, double median, double upperQuartile, boolean approximate) {
+		this.count = moments.count;
+		this.mean = (count > 0) ? moments.mean : Double.NaN;
+		this.std = (count > 1) ? Math.sqrt(moments.m2 / (count - 1)) : Double.NaN;
+		this.min = (count > 0) ? moments.min : Double.NaN;
+		this.max = (count > 0) ? moments.max : Double.NaN;
+		this.lowerQuartile = lowerQuartile;
+		this.median = median;
+		this.upperQuartile = upperQuartile;
+		this.approximate = approximate;
+	}
+	
+	public static ColumnStatistics compute(DoubleColumn column) {
+		int size = column.size();
+		boolean approximate = size > EXACT_LIMIT;
+		
+		int chunks = (size + CHUNK - 1) / CHUNK;
+		Moments[] partials = new Moments[chunks];
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			Moments moments = new Moments(approximate);
+			int end = Math.min(size, (chunk + 1) * CHUNK);
+			for (int row = chunk * CHUNK; row < end; row++) {
+				double value = column.getValue(row);
+				if (!Double.isNaN(value))
+					moments.add(value);
+			}
+			partials[chunk] = moments;
+		});
+		
+		Moments moments = new Moments(approximate);
+		for (Moments partial : partials)
+			moments.merge(partial);
+		
+		if (approximate)
+			return new ColumnStatistics(moments, moments.sketch.quantile(0.25), moments.sketch.quantile(0.5), 
+					moments.sketch.quantile(0.75), true);
+		
+		double[] values = new double[(int)moments.count];
+		int n = 0;
+		for (int row = 0; row < size; row++) {
+			double value = column.getValue(row);
+			if (!Double.isNaN(value))
+				values[n++] = value;
+		}
+		Arrays.sort(values);
+		return new ColumnStatistics(moments, quantile(values, 0.25), quantile(values, 0.5), quantile(values, 0.75), false);
+	}
+	
+	//Linear interpolation between the closest ranks
+	private static double quantile(double[] sorted, double q) {
+		if (sorted.length == 0)
+			return Double.NaN;
+		double position = q * (sorted.length - 1);
+		int lower = (int)position;
+		if (lower + 1 >= sorted.length)
+			return sorted[lower];
+		return sorted[lower] + (position - lower) * (sorted[lower + 1] - sorted[lower]);
+	}
+	
+	//Running count, mean and sum of squared deviations that can be merged
+	private static class Moments {
+		long count = 0;
+		double mean = 0, m2 = 0;
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		final QuantileSketch sketch;
+		
+		Moments(boolean sketch) {
+			this.sketch = sketch ? new QuantileSketch() : null;
+		}
+		
+		void add(double value) {
+			count++;
+			double delta = value - mean;
+			mean += delta / count;
+			m2 += delta * (value - mean);
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+			if (sketch != null)
+				sketch.add(value);
+		}
+		
+		void merge(Moments other) {
+			if (other.count == 0)
+				return;
+			long total = count + other.count;
+			double delta = other.mean - mean;
+			mean += delta * other.count / total;
+			m2 += other.m2 + delta * delta * count * other.count / total;
+			count = total;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+			if (sketch != null)
+				sketch.merge(other.sketch);
+		}
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public double getMean() {
+		return mean;
+	}
+	
+	public double getStandardDeviation() {
+		return std;
+	}
+	
+	public double getMin() {
+		return min;
+	}
+	
+	public double getMax() {
+		return max;
+	}
+	
+	public double getLowerQuartile() {
+		return lowerQuartile;
+	}
+	
+	public double getMedian() {
+		return median;
+	}
+	
+	public double getUpperQuartile() {
+		return upperQuartile;
+	}
+	
+	/**
+	 * @return true if the quartiles and median come from a sketch.
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+}
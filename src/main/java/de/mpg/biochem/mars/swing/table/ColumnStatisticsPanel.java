@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
+
+import org.scijava.table.Column;
+import org.scijava.table.DoubleColumn;
+
+/**
+ * Side panel with statistics of all DoubleColumns of a MarsTableModel. Statistics
+ * are computed on a background thread and cached per column. An edited cell only
+ * invalidates its column, any other change of the model invalidates all of them.
+ * Nothing is computed while the panel is inactive.
+ */
+public class ColumnStatisticsPanel extends JPanel implements TableModelListener {
+	private static final long serialVersionUID = 1L;
+	
+	private static final String[] HEADERS = { "Column", "N", "Mean", "Std", "Min", "Q1", "Median", "Q3", "Max" };
+	
+	private final MarsTableModel model;
+	
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Column statistics");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private static class Entry {
+		final DoubleColumn column;
+		final String header;
+		//Incremented when the column changes so older results are dropped
+		final AtomicInteger generation = new AtomicInteger();
+		ColumnStatistics statistics;
+		boolean pending;
+		
+		Entry(DoubleColumn column, String header) {
+			this.column = column;
+			this.header = header;
+		}
+	}
+	
+	//Rows of the statistics table, only accessed on the EDT
+	private List<Entry> entries = new ArrayList<Entry>();
+	private Map<Column<?>, Entry> entryOfColumn = new IdentityHashMap<Column<?>, Entry>();
+	
+	private final AbstractTableModel statisticsModel;
+	
+	private boolean active = false;
+	private boolean scheduled = false;
+	
+	public ColumnStatisticsPanel(MarsTableModel model) {
+		this.model = model;
+		
+		statisticsModel = new AbstractTableModel() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Object getValueAt(int rowIndex, int columnIndex) {
+				Entry entry = entries.get(rowIndex);
+				if (columnIndex == 0)
+					return entry.header;
+				
+				ColumnStatistics statistics = entry.statistics;
+				if (statistics == null)
+					return null;
+				
+				switch (columnIndex) {
+				case 1: return statistics.getCount();
+				case 2: return statistics.getMean();
+				case 3: return statistics.getStandardDeviation();
+				case 4: return statistics.getMin();
+				case 5: return statistics.getLowerQuartile();
+				case 6: return statistics.getMedian();
+				case 7: return statistics.getUpperQuartile();
+				default: return statistics.getMax();
+				}
+			}
+			
+			@Override
+			public Class<?> getColumnClass(int columnIndex) {
+				if (columnIndex == 0)
+					return String.class;
+				else if (columnIndex == 1)
+					return Long.class;
+				return Double.class;
+			}
+			
+			@Override
+			public String getColumnName(int columnIndex) {
+				return HEADERS[columnIndex];
+			}
+
+			@Override
+			public int getRowCount() {
+				return entries.size();
+			}
+			
+			@Override
+			public int getColumnCount() {
+				return HEADERS.length;
+			}
+		};
+		
+		JTable table = new JTable(statisticsModel);
+		table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+		table.getTableHeader().setToolTipText("Quartiles and median are approximate for columns with more than " 
+				+ ColumnStatistics.EXACT_LIMIT + " values");
+		for (int i = 0; i < HEADERS.length; i++)
+			table.getColumnModel().getColumn(i).setPreferredWidth(75);
+		
+		setLayout(new BorderLayout());
+		add(new JScrollPane(table), BorderLayout.CENTER);
+		setPreferredSize(new Dimension(400, 300));
+		
+		updateColumns();
+		model.addTableModelListener(this);
+	}
+	
+	/**
+	 * Statistics are only computed while the panel is active.
+	 */
+	public void setActive(boolean active) {
+		this.active = active;
+		if (active)
+			schedule();
+	}
+	
+	public void dispose() {
+		model.removeTableModelListener(this);
+		executor.shutdownNow();
+	}
+	
+	@Override
+	public void tableChanged(TableModelEvent e) {
+		if (e.getFirstRow() == TableModelEvent.HEADER_ROW) {
+			invalidateAll();
+			updateColumns();
+		} else if (e.getType() == TableModelEvent.UPDATE && e.getColumn() > 0) {
+			Entry entry = entryOfColumn.get(model.getColumn(e.getColumn()));
+			if (entry != null)
+				invalidate(entry);
+		} else {
+			invalidateAll();
+		}
+		statisticsModel.fireTableDataChanged();
+		schedule();
+	}
+	
+	private void updateColumns() {
+		entries = new ArrayList<Entry>();
+		entryOfColumn = new IdentityHashMap<Column<?>, Entry>();
+		for (int column = 1; column < model.getColumnCount(); column++) {
+			if (model.isNumeric(column)) {
+				Entry entry = new Entry((DoubleColumn)model.getColumn(column), model.getColumnName(column));
+				entries.add(entry);
+				entryOfColumn.put(entry.column, entry);
+			}
+		}
+	}
+	
+	private void invalidate(Entry entry) {
+		entry.generation.incrementAndGet();
+		entry.statistics = null;
+		entry.pending = false;
+	}
+	
+	private void invalidateAll() {
+		for (Entry entry : entries)
+			invalidate(entry);
+	}
+	
+	//Several events in a row, such as deletions of many runs, start a single computation
+	private void schedule() {
+		if (!active || scheduled)
+			return;
+		scheduled = true;
+		SwingUtilities.invokeLater(() -> {
+			scheduled = false;
+			if (active)
+				computeMissing();
+		});
+	}
+	
+	private void computeMissing() {
+		for (int row = 0; row < entries.size(); row++) {
+			Entry entry = entries.get(row);
+			if (entry.statistics != null || entry.pending)
+				continue;
+			
+			entry.pending = true;
+			int generation = entry.generation.get();
+			int tableRow = row;
+			List<Entry> rows = entries;
+			executor.submit(() -> {
+				if (entry.generation.get() != generation)
+					return;
+				
+				ColumnStatistics statistics;
+				try {
+					statistics = ColumnStatistics.compute(entry.column);
+				} catch (RuntimeException e) {
+					// the column was changed while it was read, it will be computed again
+					return;
+				}
+				
+				SwingUtilities.invokeLater(() -> {
+					if (entry.generation.get() != generation)
+						return;
+					entry.statistics = statistics;
+					entry.pending = false;
+					if (rows == entries)
+						statisticsModel.fireTableRowsUpdated(tableRow, tableRow);
+				});
+			});
+		}
+	}
+}
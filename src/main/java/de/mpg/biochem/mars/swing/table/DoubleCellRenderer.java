@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.awt.Component;
+import java.util.Arrays;
+
+import javax.swing.JTable;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.DefaultTableCellRenderer;
+
+/**
+ * Renders the numeric cells of a MarsTableModel from primitive values. The text of 
+ * recently painted cells, in practice those in view, is kept in a small cache that 
+ * is cleared whenever the model changes. Values are shown as Double.toString and 
+ * row numbers as integers, like the default renderer does.
+ */
+public class DoubleCellRenderer extends DefaultTableCellRenderer implements TableModelListener {
+	private static final long serialVersionUID = 1L;
+	
+	//Enough for a large screen full of cells
+	private static final int CACHE_SIZE = 1 << 13;
+	
+	private final MarsTableModel model;
+	
+	//row and column of the cached text in every slot, -1 if empty
+	private final long[] keys = new long[CACHE_SIZE];
+	private final String[] texts = new String[CACHE_SIZE];
+	
+	public DoubleCellRenderer(MarsTableModel model) {
+		this.model = model;
+		Arrays.fill(keys, -1);
+		model.addTableModelListener(this);
+	}
+	
+	/**
+	 * Configures the renderer for a cell given by its view row and column and its
+	 * model row and column. The value is read from the model.
+	 */
+	public Component getTableCellRendererComponent(JTable table, boolean isSelected, boolean hasFocus, int row, int column, int modelRow, int modelColumn) {
+		super.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+		setText(getText(modelRow, modelColumn));
+		return this;
+	}
+	
+	private String getText(int row, int column) {
+		long key = ((long)row << 32) | column;
+		int slot = (int)((row * 0x9E3779B9L + column) & (CACHE_SIZE - 1));
+		if (keys[slot] == key)
+			return texts[slot];
+		
+		String text;
+		if (column == 0)
+			text = Integer.toString(row + 1);
+		else
+			text = Double.toString(model.getDouble(row, column));
+		
+		keys[slot] = key;
+		texts[slot] = text;
+		return text;
+	}
+	
+	@Override
+	public void tableChanged(TableModelEvent e) {
+		Arrays.fill(keys, -1);
+		Arrays.fill(texts, null);
+	}
+}
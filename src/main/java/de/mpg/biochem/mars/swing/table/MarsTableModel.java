@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+import org.scijava.table.Column;
+import org.scijava.table.DoubleColumn;
+
+import de.mpg.biochem.mars.table.MarsTable;
+
+/**
+ * Table model of a MarsTable with a leading column of row numbers. Values of 
+ * DoubleColumns can be read as primitive doubles with getDouble, which is what 
+ * DoubleCellRenderer does when used with MarsTableView.
+ */
+public class MarsTableModel extends AbstractTableModel {
+	private static final long serialVersionUID = 1L;
+	
+	private MarsTable table;
+	
+	//Columns and headers as of the last structure change
+	private Column<?>[] columns = new Column<?>[0];
+	private String[] headers = new String[0];
+	
+	private boolean editable = true;
+	
+	//Number of rows listeners were last told about
+	private int rowCount;
+	
+	//Deletions with more runs of consecutive rows are reported as a single data change
+	private static final int MAX_DELETE_EVENTS = 64;
+	
+	public MarsTableModel(MarsTable table) {
+		this.table = table;
+		updateColumns();
+		rowCount = table.getRowCount();
+	}
+	
+	/**
+	 * Notifies listeners after the table was changed. Columns are only rebuilt if
+	 * columns were added, removed, replaced or renamed, otherwise only the rows are 
+	 * refreshed and column widths and order are kept. If rows were appended they are
+	 * reported as inserted, together with a change of all rows that were there before,
+	 * so the selection is kept. Use update(false) if only rows were appended.
+	 * 
+	 * @return true if the columns changed.
+	 */
+	public boolean update() {
+		return update(true);
+	}
+	
+	/**
+	 * Same as update(), but without rowsChanged appended rows are only reported as 
+	 * inserted, which lets a sorted view merge them in instead of sorting again.
+	 * 
+	 * @param rowsChanged true if values of existing rows may have changed.
+	 * @return true if the columns changed.
+	 */
+	public boolean update(boolean rowsChanged) {
+		int previousRowCount = rowCount;
+		rowCount = table.getRowCount();
+		
+		if (columnsChanged()) {
+			updateColumns();
+			fireTableStructureChanged();
+			return true;
+		}
+		
+		if (rowCount > previousRowCount && previousRowCount > 0) {
+			fireTableRowsInserted(previousRowCount, rowCount - 1);
+			if (rowsChanged)
+				fireTableRowsUpdated(0, previousRowCount - 1);
+		} else {
+			fireTableDataChanged();
+		}
+		return false;
+	}
+	
+	/**
+	 * Deletes rows by moving the remaining values of each column up in a single 
+	 * pass. Listeners get one rows deleted event per run of consecutive rows, starting 
+	 * from the last run, or a single data change if the rows are scattered.
+	 * 
+	 * @param rows Model indices in ascending order.
+	 */
+	public void deleteRows(int[] rows) {
+		if (rows.length == 0)
+			return;
+		
+		int oldCount = table.getRowCount();
+		int newCount = oldCount - rows.length;
+		
+		for (int c = 0; c < table.getColumnCount(); c++) {
+			Column<?> column = table.get(c);
+			if (column instanceof DoubleColumn)
+				compact(((DoubleColumn)column).getArray(), rows, oldCount);
+			else
+				compact(column, rows, oldCount);
+		}
+		table.setRowCount(newCount);
+		rowCount = newCount;
+		
+		int runs = 1;
+		for (int i = 1; i < rows.length; i++)
+			if (rows[i] != rows[i - 1] + 1)
+				runs++;
+		
+		if (runs > MAX_DELETE_EVENTS) {
+			fireTableDataChanged();
+			return;
+		}
+		
+		// starting from the end keeps the indices of earlier runs valid
+		int end = rows.length - 1;
+		while (end >= 0) {
+			int start = end;
+			while (start > 0 && rows[start - 1] == rows[start] - 1)
+				start--;
+			fireTableRowsDeleted(rows[start], rows[end]);
+			end = start - 1;
+		}
+	}
+	
+	//Moves the values between deleted rows up, one arraycopy per kept range
+	private static void compact(double[] values, int[] rows, int size) {
+		int target = rows[0];
+		for (int i = 0; i < rows.length; i++) {
+			int from = rows[i] + 1;
+			int to = (i + 1 < rows.length) ? rows[i + 1] : size;
+			System.arraycopy(values, from, values, target, to - from);
+			target += to - from;
+		}
+	}
+	
+	private static <T> void compact(List<T> values, int[] rows, int size) {
+		int target = rows[0];
+		for (int i = 0; i < rows.length; i++) {
+			int to = (i + 1 < rows.length) ? rows[i + 1] : size;
+			for (int from = rows[i] + 1; from < to; from++)
+				values.set(target++, values.get(from));
+		}
+	}
+	
+	private boolean columnsChanged() {
+		if (table.getColumnCount() != columns.length)
+			return true;
+		for (int i = 0; i < columns.length; i++)
+			if (table.get(i) != columns[i] || !table.getColumnHeader(i).equals(headers[i]))
+				return true;
+		return false;
+	}
+	
+	private void updateColumns() {
+		int n = table.getColumnCount();
+		columns = new Column<?>[n];
+		headers = new String[n];
+		for (int i = 0; i < n; i++) {
+			columns[i] = table.get(i);
+			headers[i] = table.getColumnHeader(i);
+		}
+	}
+	
+	/**
+	 * Shows another table, for example the DataTable of the next molecule. If the
+	 * table has the same column headers, only the rows are refreshed and views keep
+	 * their column widths and order.
+	 * 
+	 * @return true if the columns changed.
+	 */
+	public boolean setTable(MarsTable table) {
+		boolean sameHeaders = table.getColumnCount() == headers.length;
+		for (int i = 0; sameHeaders && i < headers.length; i++)
+			sameHeaders = table.getColumnHeader(i).equals(headers[i]);
+		
+		this.table = table;
+		updateColumns();
+		rowCount = table.getRowCount();
+		
+		if (sameHeaders)
+			fireTableDataChanged();
+		else
+			fireTableStructureChanged();
+		return !sameHeaders;
+	}
+	
+	public void setEditable(boolean editable) {
+		this.editable = editable;
+	}
+	
+	public MarsTable getTable() {
+		return table;
+	}
+	
+	/**
+	 * @return the column shown at the index, which starts at 1 after the row numbers.
+	 */
+	Column<?> getColumn(int columnIndex) {
+		return columns[columnIndex - 1];
+	}
+	
+	/**
+	 * @return true for the row number column and DoubleColumns.
+	 */
+	public boolean isNumeric(int columnIndex) {
+		return columnIndex == 0 || columns[columnIndex - 1] instanceof DoubleColumn;
+	}
+	
+	/**
+	 * @return the value of a cell in a numeric column without boxing it.
+	 */
+	public double getDouble(int rowIndex, int columnIndex) {
+		if (columnIndex == 0)
+			return rowIndex + 1;
+		return ((DoubleColumn)columns[columnIndex - 1]).getValue(rowIndex);
+	}
+	
+	@Override
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		if (columnIndex == 0)
+			return rowIndex + 1;
+		
+		return columns[columnIndex - 1].get(rowIndex);
+	}
+	
+	@Override
+	public String getColumnName(int columnIndex) {
+		if (columnIndex == 0)
+			return "Row";
+		
+		return headers[columnIndex - 1];
+	}
+
+	@Override
+	public int getRowCount() {
+		return table.getRowCount();
+	}
+	
+	@Override
+	public int getColumnCount() {
+		return columns.length + 1;
+	}
+	
+	@Override
+	public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+		if (columns[columnIndex - 1] instanceof DoubleColumn) {
+			table.set(columnIndex - 1, rowIndex, Double.valueOf((String)aValue));
+		} else {
+			//Otherwise we just put a String
+			table.set(columnIndex - 1, rowIndex, (String)aValue);
+		}
+		fireTableCellUpdated(rowIndex, columnIndex);
+	}
+	
+	@Override
+	public boolean isCellEditable(int rowIndex, int columnIndex)  {
+		return editable && columnIndex > 0;
+	}
+}
@@ -0,0 +1,656 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+
+import de.mpg.biochem.mars.swing.plot.MathExpression;
+
+/**
+ * RowSorter for a MarsTableModel that sorts by one column and filters rows with an 
+ * expression such as "x > 10 && molecule == 5", in which numeric columns are referred
+ * to by their header. The view is an int[] permutation of the model rows. Sorted
+ * permutations are computed with a parallel merge sort over the primitive column 
+ * values and cached per sort key, so sorting by a column again or removing the filter
+ * is cheap. Appended and deleted rows are merged into the cached permutations 
+ * instead of sorting all rows again.
+ */
+public class MarsTableRowSorter extends RowSorter<MarsTableModel> {
+	
+	//Ranges smaller than this are sorted without forking
+	private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+	private static final int INSERTION_THRESHOLD = 32;
+	
+	//Rows evaluated by the filter per task
+	private static final int FILTER_CHUNK = 1 << 14;
+	
+	private static final int CACHE_SIZE = 4;
+	
+	private final MarsTableModel model;
+	
+	private List<SortKey> sortKeys = Collections.emptyList();
+	
+	private String filterExpression;
+	private MathExpression filter;
+	//Model columns of the variable slots of the filter
+	private int[] filterColumns;
+	//Result of the filter for every model row, null without filter
+	private boolean[] accepted;
+	
+	//Number of model rows the permutations were computed for
+	private int modelRowCount;
+	
+	//Both null if the view shows all model rows in model order
+	private int[] viewToModel;
+	private int[] modelToView;
+	
+	//Sorted permutations of all model rows
+	private final Map<SortKey, int[]> sortCache = new LinkedHashMap<SortKey, int[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<SortKey, int[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	private interface IndexComparator {
+		int compare(int a, int b);
+	}
+	
+	public MarsTableRowSorter(MarsTableModel model) {
+		this.model = model;
+		this.modelRowCount = model.getRowCount();
+	}
+
+	@Override
+	public MarsTableModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Sorts ascending by the column, then descending and then restores model order.
+	 */
+	@Override
+	public void toggleSortOrder(int column) {
+		checkColumn(column);
+		SortKey current = sortKeys.isEmpty() ? null : sortKeys.get(0);
+		
+		if (current == null || current.getColumn() != column)
+			setSortKeys(Collections.singletonList(new SortKey(column, SortOrder.ASCENDING)));
+		else if (current.getSortOrder() == SortOrder.ASCENDING)
+			setSortKeys(Collections.singletonList(new SortKey(column, SortOrder.DESCENDING)));
+		else
+			setSortKeys(null);
+	}
+
+	/**
+	 * Only the first key with an order other than UNSORTED is used.
+	 */
+	@Override
+	public void setSortKeys(List<? extends SortKey> keys) {
+		List<SortKey> newKeys = Collections.emptyList();
+		if (keys != null) {
+			for (SortKey key : keys) {
+				checkColumn(key.getColumn());
+				if (key.getSortOrder() != SortOrder.UNSORTED) {
+					newKeys = Collections.singletonList(key);
+					break;
+				}
+			}
+		}
+		
+		if (!newKeys.equals(sortKeys)) {
+			sortKeys = newKeys;
+			fireSortOrderChanged();
+			updateView();
+		}
+	}
+
+	@Override
+	public List<? extends SortKey> getSortKeys() {
+		return sortKeys;
+	}
+	
+	/**
+	 * Shows only rows for which the expression is not 0. Numeric columns are 
+	 * variables named by their header.
+	 * 
+	 * @param expression The filter expression or null or an empty String to show 
+	 * all rows.
+	 * @throws ParseException if the expression is invalid or refers to a column 
+	 * that does not exist or is not numeric. The current filter is kept.
+	 */
+	public void setRowFilter(String expression) throws ParseException {
+		if (expression == null || expression.trim().isEmpty()) {
+			clearFilter();
+		} else {
+			compileFilter(expression);
+			accepted = new boolean[modelRowCount];
+			evaluateFilter(0, modelRowCount);
+		}
+		updateView();
+	}
+	
+	/**
+	 * @return the filter expression or null if all rows are shown.
+	 */
+	public String getRowFilter() {
+		return filterExpression;
+	}
+	
+	private void clearFilter() {
+		filterExpression = null;
+		filter = null;
+		filterColumns = null;
+		accepted = null;
+	}
+	
+	private void compileFilter(String expression) throws ParseException {
+		Map<String, Integer> numericColumns = new HashMap<String, Integer>();
+		for (int column = 1; column < model.getColumnCount(); column++)
+			if (model.isNumeric(column))
+				numericColumns.put(model.getColumnName(column), column);
+		
+		List<Integer> columns = new ArrayList<Integer>();
+		MathExpression compiled = MathExpression.parse(expression, name -> {
+			Integer column = numericColumns.get(name);
+			if (column == null)
+				return MathExpression.UNKNOWN_VARIABLE;
+			int slot = columns.indexOf(column);
+			if (slot == -1) {
+				slot = columns.size();
+				columns.add(column);
+			}
+			return slot;
+		});
+		
+		filterExpression = expression;
+		filter = compiled;
+		filterColumns = new int[columns.size()];
+		for (int i = 0; i < filterColumns.length; i++)
+			filterColumns[i] = columns.get(i);
+	}
+	
+	//Evaluates the filter for the model rows from (inclusive) to to (exclusive) in parallel
+	private void evaluateFilter(int from, int to) {
+		int chunks = (to - from + FILTER_CHUNK - 1) / FILTER_CHUNK;
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			double[] values = new double[filterColumns.length];
+			int end = Math.min(to, from + (chunk + 1) * FILTER_CHUNK);
+			for (int row = from + chunk * FILTER_CHUNK; row < end; row++) {
+				for (int slot = 0; slot < values.length; slot++)
+					values[slot] = model.getDouble(row, filterColumns[slot]);
+				accepted[row] = filter.evaluate(0, values) != 0;
+			}
+		});
+	}
+	
+	private boolean filterUses(int column) {
+		if (filterColumns != null)
+			for (int filterColumn : filterColumns)
+				if (filterColumn == column)
+					return true;
+		return false;
+	}
+
+	@Override
+	public int convertRowIndexToModel(int index) {
+		if (viewToModel == null) {
+			if (index < 0 || index >= model.getRowCount())
+				throw new IndexOutOfBoundsException("Invalid index");
+			return index;
+		}
+		return viewToModel[index];
+	}
+
+	@Override
+	public int convertRowIndexToView(int index) {
+		if (modelToView == null) {
+			if (index < 0 || index >= model.getRowCount())
+				throw new IndexOutOfBoundsException("Invalid index");
+			return index;
+		}
+		return modelToView[index];
+	}
+
+	@Override
+	public int getViewRowCount() {
+		if (viewToModel == null)
+			return model.getRowCount();
+		return viewToModel.length;
+	}
+
+	@Override
+	public int getModelRowCount() {
+		return model.getRowCount();
+	}
+
+	@Override
+	public void modelStructureChanged() {
+		sortCache.clear();
+		modelRowCount = model.getRowCount();
+		
+		if (!sortKeys.isEmpty()) {
+			sortKeys = Collections.emptyList();
+			fireSortOrderChanged();
+		}
+		
+		//Column indices of the filter are resolved again
+		if (filterExpression != null) {
+			try {
+				compileFilter(filterExpression);
+				accepted = new boolean[modelRowCount];
+				evaluateFilter(0, modelRowCount);
+			} catch (ParseException e) {
+				clearFilter();
+			}
+		}
+		updateView();
+	}
+
+	@Override
+	public void allRowsChanged() {
+		sortCache.clear();
+		modelRowCount = model.getRowCount();
+		if (filter != null) {
+			accepted = new boolean[modelRowCount];
+			evaluateFilter(0, modelRowCount);
+		}
+		updateView();
+	}
+
+	@Override
+	public void rowsInserted(int firstRow, int endRow) {
+		checkRange(firstRow, endRow, modelRowCount + 1);
+		
+		//Only appended rows are merged, anything else is sorted again
+		if (firstRow != modelRowCount) {
+			allRowsChanged();
+			return;
+		}
+		
+		int oldCount = modelRowCount;
+		modelRowCount += endRow - firstRow + 1;
+		
+		if (filter != null) {
+			boolean[] newAccepted = new boolean[modelRowCount];
+			System.arraycopy(accepted, 0, newAccepted, 0, oldCount);
+			accepted = newAccepted;
+			evaluateFilter(oldCount, modelRowCount);
+		}
+		
+		for (Map.Entry<SortKey, int[]> entry : sortCache.entrySet()) {
+			IndexComparator comparator = comparator(entry.getKey());
+			int[] added = new int[modelRowCount - oldCount];
+			for (int i = 0; i < added.length; i++)
+				added[i] = oldCount + i;
+			sort(added, comparator);
+			entry.setValue(merge(entry.getValue(), added, comparator));
+		}
+		updateView();
+	}
+
+	@Override
+	public void rowsDeleted(int firstRow, int endRow) {
+		checkRange(firstRow, endRow, modelRowCount);
+		
+		int removed = endRow - firstRow + 1;
+		int oldCount = modelRowCount;
+		modelRowCount -= removed;
+		
+		if (accepted != null) {
+			boolean[] newAccepted = new boolean[modelRowCount];
+			System.arraycopy(accepted, 0, newAccepted, 0, firstRow);
+			System.arraycopy(accepted, endRow + 1, newAccepted, firstRow, oldCount - endRow - 1);
+			accepted = newAccepted;
+		}
+		
+		//Deleted rows are dropped and the rows after them move up
+		for (Map.Entry<SortKey, int[]> entry : sortCache.entrySet()) {
+			int[] rows = entry.getValue();
+			int[] remaining = new int[modelRowCount];
+			int n = 0;
+			for (int row : rows) {
+				if (row < firstRow)
+					remaining[n++] = row;
+				else if (row > endRow)
+					remaining[n++] = row - removed;
+			}
+			entry.setValue(remaining);
+		}
+		updateView();
+	}
+
+	@Override
+	public void rowsUpdated(int firstRow, int endRow) {
+		checkRange(firstRow, endRow, modelRowCount);
+		
+		sortCache.clear();
+		if (filter != null)
+			evaluateFilter(firstRow, endRow + 1);
+		updateView();
+	}
+
+	@Override
+	public void rowsUpdated(int firstRow, int endRow, int column) {
+		checkRange(firstRow, endRow, modelRowCount);
+		checkColumn(column);
+		
+		Iterator<SortKey> keys = sortCache.keySet().iterator();
+		while (keys.hasNext())
+			if (keys.next().getColumn() == column)
+				keys.remove();
+		
+		boolean filtered = filterUses(column);
+		if (filtered)
+			evaluateFilter(firstRow, endRow + 1);
+		
+		if (filtered || (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column))
+			updateView();
+	}
+	
+	private void checkRange(int firstRow, int endRow, int rowCount) {
+		if (firstRow < 0 || endRow < firstRow || firstRow >= rowCount)
+			throw new IndexOutOfBoundsException("Invalid range " + firstRow + " to " + endRow);
+	}
+	
+	private void checkColumn(int column) {
+		if (column < 0 || column >= model.getColumnCount())
+			throw new IndexOutOfBoundsException("Invalid column " + column);
+	}
+	
+	private void updateView() {
+		int[] lastViewToModel = (viewToModel == null) ? new int[0] : viewToModel;
+		
+		int[] order = sortKeys.isEmpty() ? null : sortedRows(sortKeys.get(0));
+		
+		if (order == null && accepted == null) {
+			viewToModel = null;
+			modelToView = null;
+		} else {
+			int count = modelRowCount;
+			if (accepted != null) {
+				count = 0;
+				for (boolean pass : accepted)
+					if (pass)
+						count++;
+			}
+			
+			viewToModel = new int[count];
+			modelToView = new int[modelRowCount];
+			Arrays.fill(modelToView, -1);
+			
+			int view = 0;
+			for (int i = 0; i < modelRowCount; i++) {
+				int row = (order == null) ? i : order[i];
+				if (accepted == null || accepted[row]) {
+					viewToModel[view] = row;
+					modelToView[row] = view++;
+				}
+			}
+		}
+		fireRowSorterChanged(lastViewToModel);
+	}
+	
+	private int[] sortedRows(SortKey key) {
+		int[] rows = sortCache.get(key);
+		if (rows == null) {
+			rows = new int[modelRowCount];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = i;
+			
+			int column = key.getColumn();
+			if (column > 0 && model.isNumeric(column)) {
+				// values are moved along with the rows so the merges read memory in order
+				double[] values = new double[modelRowCount];
+				for (int row = 0; row < values.length; row++)
+					values[row] = model.getDouble(row, column);
+				sort(values, rows, key.getSortOrder() == SortOrder.DESCENDING);
+			} else {
+				sort(rows, comparator(key));
+			}
+			sortCache.put(key, rows);
+		}
+		return rows;
+	}
+	
+	//Compares model rows by the values of the column as of now
+	private IndexComparator comparator(SortKey key) {
+		int column = key.getColumn();
+		boolean ascending = key.getSortOrder() == SortOrder.ASCENDING;
+		
+		if (column == 0)
+			return ascending ? (a, b) -> Integer.compare(a, b) : (a, b) -> Integer.compare(b, a);
+		
+		if (model.isNumeric(column)) {
+			double[] values = new double[modelRowCount];
+			for (int row = 0; row < values.length; row++)
+				values[row] = model.getDouble(row, column);
+			return ascending ? (a, b) -> Double.compare(values[a], values[b]) : (a, b) -> Double.compare(values[b], values[a]);
+		}
+		
+		String[] values = new String[modelRowCount];
+		for (int row = 0; row < values.length; row++) {
+			Object value = model.getValueAt(row, column);
+			values[row] = (value == null) ? "" : value.toString();
+		}
+		return ascending ? (a, b) -> values[a].compareTo(values[b]) : (a, b) -> values[b].compareTo(values[a]);
+	}
+	
+	//Stable, so rows with equal values stay in model order
+	private static void sort(int[] rows, IndexComparator comparator) {
+		int[] buffer = new int[rows.length];
+		if (rows.length < SEQUENTIAL_THRESHOLD)
+			mergeSort(rows, buffer, 0, rows.length, comparator);
+		else
+			ForkJoinPool.commonPool().invoke(new SortTask(rows, buffer, 0, rows.length, comparator));
+	}
+	
+	private static class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[] rows, buffer;
+		private final int from, to;
+		private final IndexComparator comparator;
+		
+		SortTask(int[] rows, int[] buffer, int from, int to, IndexComparator comparator) {
+			this.rows = rows;
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.comparator = comparator;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from < SEQUENTIAL_THRESHOLD) {
+				mergeSort(rows, buffer, from, to, comparator);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new SortTask(rows, buffer, from, middle, comparator), 
+					new SortTask(rows, buffer, middle, to, comparator));
+			merge(rows, buffer, from, middle, to, comparator);
+		}
+	}
+	
+	private static void mergeSort(int[] rows, int[] buffer, int from, int to, IndexComparator comparator) {
+		if (to - from <= INSERTION_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				int row = rows[i];
+				int j = i - 1;
+				while (j >= from && comparator.compare(rows[j], row) > 0) {
+					rows[j + 1] = rows[j];
+					j--;
+				}
+				rows[j + 1] = row;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(rows, buffer, from, middle, comparator);
+		mergeSort(rows, buffer, middle, to, comparator);
+		merge(rows, buffer, from, middle, to, comparator);
+	}
+	
+	//Merges the sorted ranges from-middle and middle-to
+	private static void merge(int[] rows, int[] buffer, int from, int middle, int to, IndexComparator comparator) {
+		if (comparator.compare(rows[middle - 1], rows[middle]) <= 0)
+			return;
+		
+		System.arraycopy(rows, from, buffer, from, to - from);
+		int i = from, j = middle, k = from;
+		while (i < middle && j < to)
+			rows[k++] = (comparator.compare(buffer[j], buffer[i]) < 0) ? buffer[j++] : buffer[i++];
+		while (i < middle)
+			rows[k++] = buffer[i++];
+		while (j < to)
+			rows[k++] = buffer[j++];
+	}
+	
+	//Sorts the rows by the values, stable as well
+	private static void sort(double[] values, int[] rows, boolean descending) {
+		double[] valueBuffer = new double[values.length];
+		int[] rowBuffer = new int[rows.length];
+		if (rows.length < SEQUENTIAL_THRESHOLD)
+			mergeSort(values, rows, valueBuffer, rowBuffer, 0, rows.length, descending);
+		else
+			ForkJoinPool.commonPool().invoke(new ValueSortTask(values, rows, valueBuffer, rowBuffer, 0, rows.length, descending));
+	}
+	
+	private static class ValueSortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final double[] values, valueBuffer;
+		private final int[] rows, rowBuffer;
+		private final int from, to;
+		private final boolean descending;
+		
+		ValueSortTask(double[] values, int[] rows, double[] valueBuffer, int[] rowBuffer, int from, int to, boolean descending) {
+			this.values = values;
+			this.rows = rows;
+			this.valueBuffer = valueBuffer;
+			this.rowBuffer = rowBuffer;
+			this.from = from;
+			this.to = to;
+			this.descending = descending;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from < SEQUENTIAL_THRESHOLD) {
+				mergeSort(values, rows, valueBuffer, rowBuffer, from, to, descending);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ValueSortTask(values, rows, valueBuffer, rowBuffer, from, middle, descending), 
+					new ValueSortTask(values, rows, valueBuffer, rowBuffer, middle, to, descending));
+			merge(values, rows, valueBuffer, rowBuffer, from, middle, to, descending);
+		}
+	}
+	
+	private static int compare(double a, double b, boolean descending) {
+		return descending ? Double.compare(b, a) : Double.compare(a, b);
+	}
+	
+	private static void mergeSort(double[] values, int[] rows, double[] valueBuffer, int[] rowBuffer, int from, int to, boolean descending) {
+		if (to - from <= INSERTION_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				double value = values[i];
+				int row = rows[i];
+				int j = i - 1;
+				while (j >= from && compare(values[j], value, descending) > 0) {
+					values[j + 1] = values[j];
+					rows[j + 1] = rows[j];
+					j--;
+				}
+				values[j + 1] = value;
+				rows[j + 1] = row;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(values, rows, valueBuffer, rowBuffer, from, middle, descending);
+		mergeSort(values, rows, valueBuffer, rowBuffer, middle, to, descending);
+		merge(values, rows, valueBuffer, rowBuffer, from, middle, to, descending);
+	}
+	
+	private static void merge(double[] values, int[] rows, double[] valueBuffer, int[] rowBuffer, int from, int middle, int to, boolean descending) {
+		if (compare(values[middle - 1], values[middle], descending) <= 0)
+			return;
+		
+		System.arraycopy(values, from, valueBuffer, from, to - from);
+		System.arraycopy(rows, from, rowBuffer, from, to - from);
+		int i = from, j = middle, k = from;
+		while (i < middle && j < to) {
+			if (compare(valueBuffer[j], valueBuffer[i], descending) < 0) {
+				values[k] = valueBuffer[j];
+				rows[k++] = rowBuffer[j++];
+			} else {
+				values[k] = valueBuffer[i];
+				rows[k++] = rowBuffer[i++];
+			}
+		}
+		while (i < middle) {
+			values[k] = valueBuffer[i];
+			rows[k++] = rowBuffer[i++];
+		}
+		while (j < to) {
+			values[k] = valueBuffer[j];
+			rows[k++] = rowBuffer[j++];
+		}
+	}
+	
+	//Merges two sorted permutations, rows of the first come first if values are equal
+	private static int[] merge(int[] first, int[] second, IndexComparator comparator) {
+		int[] rows = new int[first.length + second.length];
+		int i = 0, j = 0, k = 0;
+		while (i < first.length && j < second.length)
+			rows[k++] = (comparator.compare(second[j], first[i]) < 0) ? second[j++] : first[i++];
+		while (i < first.length)
+			rows[k++] = first[i++];
+		while (j < second.length)
+			rows[k++] = second[j++];
+		return rows;
+	}
+}
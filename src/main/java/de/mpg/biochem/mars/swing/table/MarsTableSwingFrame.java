@@ -40,17 +40,24 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
-import javax.swing.table.AbstractTableModel;
+import javax.swing.border.EmptyBorder;
+import javax.swing.TransferHandler;
 
 import ij.gui.GenericDialog;
 import ij.WindowManager;
@@ -77,7 +84,13 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
 	private JFrame frame;
 	JTable table;
 	JScrollPane scrollPane;
-	private AbstractTableModel tableModel;
+	private MarsTableModel tableModel;
+	private MarsTableRowSorter sorter;
+	private JTextField filterField;
+	
+	//Set while the table is written in the background
+	private boolean saving = false;
+	private boolean closeWhenSaved = false;
 	private JMenuItem saveAsMenuItem = new JMenuItem("Save As YAMT", KeyEvent.VK_S);
 	private JMenuItem saveAsCSVMenuItem = new JMenuItem("Export to CSV", KeyEvent.VK_C);
 	private JMenuItem exportToJSONMenuItem = new JMenuItem("Export to JSON", KeyEvent.VK_E);
@@ -86,6 +99,9 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
 	private JMenuItem clearMenuItem = new JMenuItem("Clear");
 	private JMenuItem selectAllMenuItem = new JMenuItem("Select All", KeyEvent.VK_A);
 	
+	private JCheckBoxMenuItem statisticsMenuItem = new JCheckBoxMenuItem("Column Statistics");
+	private ColumnStatisticsPanel statisticsPanel;
+	
 	private JMenuItem singleCurveMenuItem = new JMenuItem("Single Curve");
 	//private JMenuItem multiCurveMenuItem = new JMenuItem("Multiple Curves");
 	//private JMenuItem multiPlotMenuItem = new JMenuItem("Multiple Plots");
@@ -111,62 +127,30 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
 	}
 	
 	public void update() {
-		for (int i = 0; i < table.getColumnCount(); i++)
-			table.getColumnModel().getColumn(i).setPreferredWidth(75);
-		
-		tableModel.fireTableStructureChanged();
+		// column widths are only reset when columns were added, removed or renamed
+		if (tableModel.update()) {
+			for (int i = 0; i < table.getColumnCount(); i++)
+				table.getColumnModel().getColumn(i).setPreferredWidth(75);
+			
+			// the filter is dropped if its columns are gone
+			filterField.setText(sorter.getRowFilter());
+		}
 	}
 	
 	private void createFrame(String name) {
-		tableModel = new AbstractTableModel() {
-			private static final long serialVersionUID = 1L;
-
-			@Override
-			public Object getValueAt(int rowIndex, int columnIndex) {
-				if (columnIndex == 0)
-					return rowIndex + 1;
-				
-				return results.get(columnIndex - 1, rowIndex);
-			}
-			
-			@Override
-			public String getColumnName(int columnIndex) {
-				if (columnIndex == 0)
-					return "Row";
-				
-				return results.getColumnHeader(columnIndex - 1);
-			}
-
-			@Override
-			public int getRowCount() {
-				return results.getRowCount();
-			}
-			
-			@Override
-			public int getColumnCount() {
-				return results.getColumnCount() + 1;
-			}
-			
-			@Override
-			public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-				if (results.get(columnIndex - 1)  instanceof DoubleColumn) {
-					results.set(columnIndex - 1, rowIndex, Double.valueOf((String)aValue));
-				} else {
-					//Otherwise we just put a String
-					results.set(columnIndex - 1, rowIndex, (String)aValue);
-				}
-			}
-			
-			@Override
-			public boolean isCellEditable(int rowIndex, int columnIndex)  {
-				return columnIndex > 0;
-			}
-			
-		};
+		tableModel = new MarsTableModel(results);
+		
+		//Group indices used for plotting are recomputed after any change
+		tableModel.addTableModelListener(e -> TableGroupIndex.invalidate(results));
 		
-		table = new JTable(tableModel);
+		table = new MarsTableView(tableModel);
 		table.setRowSelectionAllowed(true);
 		table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		table.setTransferHandler(new MarsTableTransferHandler());
+		
+		//Click a column header to sort
+		sorter = new MarsTableRowSorter(tableModel);
+		table.setRowSorter(sorter);
 		
 		for (int i = 0; i < table.getColumnCount(); i++)
 			table.getColumnModel().getColumn(i).setPreferredWidth(75);
@@ -195,6 +179,13 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
 		editMenu.add(selectAllMenuItem);
 		mb.add(editMenu);
 		
+		// view menu
+		JMenu viewMenu = new JMenu("View");
+		viewMenu.setMnemonic(KeyEvent.VK_V);
+		
+		viewMenu.add(statisticsMenuItem);
+		mb.add(viewMenu);
+		
 		JMenu plotMenu = new JMenu("Plot");
 		mb.add(plotMenu);
 		//toolsMenu.add(addMetaDataMenuItem);
@@ -224,6 +215,7 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
 		copyMenuItem.addActionListener(this);
 		clearMenuItem.addActionListener(this);
 		selectAllMenuItem.addActionListener(this);
+		statisticsMenuItem.addActionListener(this);
 
 		//plotMenuItem.addActionListener(this);
 		
@@ -249,11 +241,42 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
  	         }
  	      });
 		frame.setLayout(new BorderLayout());
+		frame.add(buildFilterPanel(), BorderLayout.NORTH);
 		frame.add(scrollPane);
 		frame.setJMenuBar(mb);
 		frame.setVisible(true);
 	}
 	
+	private JPanel buildFilterPanel() {
+		JPanel filterPanel = new JPanel(new BorderLayout());
+		filterPanel.setBorder(new EmptyBorder(2, 4, 2, 4));
+		filterPanel.add(new JLabel("Filter "), BorderLayout.WEST);
+		
+		filterField = new JTextField();
+		filterField.setToolTipText("Show rows matching an expression such as x > 10 && molecule == 5");
+		filterField.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				filter(filterField.getText());
+			}
+		});
+		filterPanel.add(filterField, BorderLayout.CENTER);
+		
+		return filterPanel;
+	}
+	
+	/**
+	 * Shows only rows for which the expression is not 0. Numeric columns are
+	 * referred to by their header.
+	 */
+	public void filter(String expression) {
+		try {
+			sorter.setRowFilter(expression);
+		} catch (ParseException e) {
+			JOptionPane.showMessageDialog(frame, "Invalid filter: " + e.getMessage(), "Filter", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+	
 	public MarsTable getResults() {
 		return results;
 	}
@@ -263,10 +286,14 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
 		if (e.getSource() == renameMenuItem) {
 			String name = JOptionPane.showInputDialog("Table name", frame.getTitle());
 			rename(name);
+		} else if (e.getSource() == copyMenuItem) {
+			copy();
 		} else if (e.getSource() == clearMenuItem) {
 			deleteRows();
 		} else if (e.getSource() == selectAllMenuItem) {
 			selectAll();
+		} else if (e.getSource() == statisticsMenuItem) {
+			showStatistics(statisticsMenuItem.isSelected());
 		} else if (e.getSource() == saveAsMenuItem) {
 			try {
 				saveAs();
@@ -321,7 +348,7 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
         String file = sd.getFileName();
         if (file==null) return false;
         String path = sd.getDirectory() + file;
-		results.saveAsYAMT(path);
+		new TableSaveTask(this, new File(path), results::saveAsYAMT).execute();
 		return true;
 	}
 	
@@ -330,7 +357,7 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
         String file = sd.getFileName();
         if (file==null) return;
         String path = sd.getDirectory() + file;
-		results.saveAsCSV(path);
+		new TableSaveTask(this, new File(path), results::saveAsCSV).execute();
 	}
 	
 	protected void exportToJSON() throws IOException {
@@ -338,7 +365,7 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
         String file = sd.getFileName();
         if (file==null) return;
         String path = sd.getDirectory() + file;
-		results.saveAsJSON(path);
+		new TableSaveTask(this, new File(path), results::saveAsJSON).execute();
 	}
 	
 	public void rename(String name) {
@@ -356,20 +383,81 @@ public class MarsTableSwingFrame implements ActionListener, MarsTableWindow {
 	}
 	
 	public void close() {
+		// the table is cleared once it has been written
+		if (saving) {
+			closeWhenSaved = true;
+			frame.setVisible(false);
+			return;
+		}
+		
 		marsTableService.removeTable(results);
 		frame.setVisible(false);
 		frame.dispose();
 		
+		if (statisticsPanel != null)
+			statisticsPanel.dispose();
+		
 		results.clear();
+		TableGroupIndex.invalidate(results);
 		if (!uiService.isHeadless())
 			WindowManager.removeWindow(frame);
 	}
 	
+	/**
+	 * While the table is written in the background it can't be edited, 
+	 * cleared or written again. The status panel is shown below the table.
+	 */
+	void setSaving(boolean saving, JPanel statusPanel) {
+		this.saving = saving;
+		tableModel.setEditable(!saving);
+		if (saving && table.isEditing())
+			table.getCellEditor().stopCellEditing();
+		
+		saveAsMenuItem.setEnabled(!saving);
+		saveAsCSVMenuItem.setEnabled(!saving);
+		exportToJSONMenuItem.setEnabled(!saving);
+		clearMenuItem.setEnabled(!saving);
+		
+		if (saving)
+			frame.add(statusPanel, BorderLayout.SOUTH);
+		else
+			frame.remove(statusPanel);
+		frame.revalidate();
+		frame.repaint();
+		
+		if (!saving && closeWhenSaved)
+			close();
+	}
+	
 	protected void deleteRows() {
-		results.deleteRows(table.getSelectedRows());
+		int[] rows = table.getSelectedRows();
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = table.convertRowIndexToModel(rows[i]);
+		Arrays.sort(rows);
 		
 		table.clearSelection();
-		tableModel.fireTableDataChanged();
+		tableModel.deleteRows(rows);
+	}
+	
+	protected void copy() {
+		table.getTransferHandler().exportToClipboard(table, Toolkit.getDefaultToolkit().getSystemClipboard(), TransferHandler.COPY);
+	}
+	
+	/**
+	 * Shows or hides statistics of the numeric columns to the right of the table.
+	 * Statistics stay cached while hidden but are only computed while shown.
+	 */
+	protected void showStatistics(boolean show) {
+		if (statisticsPanel == null)
+			statisticsPanel = new ColumnStatisticsPanel(tableModel);
+		
+		statisticsPanel.setActive(show);
+		if (show)
+			frame.add(statisticsPanel, BorderLayout.EAST);
+		else
+			frame.remove(statisticsPanel);
+		frame.revalidate();
+		frame.repaint();
 	}
 	
 	protected void selectAll() {
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.swing.JComponent;
+import javax.swing.JTable;
+import javax.swing.TransferHandler;
+import javax.swing.table.TableModel;
+
+import de.mpg.biochem.mars.swing.plot.DelimitedTextWriter;
+
+/**
+ * Copies the selected cells of a table as tab separated text, in the same layout as 
+ * the default JTable copy. For a MarsTableModel values of DoubleColumns are read as 
+ * primitives and written with DelimitedTextWriter. The values are read when copying,
+ * the text is only generated when it is pasted.
+ */
+public class MarsTableTransferHandler extends TransferHandler {
+	private static final long serialVersionUID = 1L;
+	
+	public static final DataFlavor TSV_FLAVOR = new DataFlavor("text/tab-separated-values; class=java.lang.String", "Tab separated values");
+
+	@Override
+	public int getSourceActions(JComponent c) {
+		return COPY;
+	}
+	
+	@Override
+	protected Transferable createTransferable(JComponent c) {
+		if (!(c instanceof JTable))
+			return null;
+		JTable table = (JTable) c;
+		
+		if (!table.getRowSelectionAllowed() && !table.getColumnSelectionAllowed())
+			return null;
+		
+		int[] rows, columns;
+		if (!table.getRowSelectionAllowed()) {
+			rows = new int[table.getRowCount()];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = i;
+		} else {
+			rows = table.getSelectedRows();
+		}
+		
+		if (!table.getColumnSelectionAllowed()) {
+			columns = new int[table.getColumnCount()];
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = i;
+		} else {
+			columns = table.getSelectedColumns();
+		}
+		
+		if (rows.length == 0 || columns.length == 0)
+			return null;
+		
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = table.convertRowIndexToModel(rows[i]);
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = table.convertColumnIndexToModel(columns[i]);
+		
+		return new TableSelection(table.getModel(), rows, columns);
+	}
+	
+	private static class TableSelection implements Transferable {
+		//Model rows, the row numbers are written from these
+		private final int[] rows;
+		
+		//Values of the copied rows for each copied column, numbers for numeric columns 
+		//of a MarsTableModel and text otherwise. Neither is set for the row numbers.
+		private final double[][] numbers;
+		private final String[][] texts;
+		
+		private String text;
+		
+		//Values are read right away, the model may show another table or lose rows before the paste
+		TableSelection(TableModel model, int[] rows, int[] columns) {
+			this.rows = rows;
+			numbers = new double[columns.length][];
+			texts = new String[columns.length][];
+			
+			MarsTableModel marsModel = (model instanceof MarsTableModel) ? (MarsTableModel) model : null;
+			for (int c = 0; c < columns.length; c++) {
+				int column = columns[c];
+				if (marsModel != null && column == 0)
+					continue;
+				
+				if (marsModel != null && marsModel.isNumeric(column)) {
+					numbers[c] = new double[rows.length];
+					for (int r = 0; r < rows.length; r++)
+						numbers[c][r] = marsModel.getDouble(rows[r], column);
+				} else {
+					texts[c] = new String[rows.length];
+					for (int r = 0; r < rows.length; r++) {
+						Object value = model.getValueAt(rows[r], column);
+						texts[c][r] = (value == null) ? "" : value.toString();
+					}
+				}
+			}
+		}
+
+		@Override
+		public DataFlavor[] getTransferDataFlavors() {
+			return new DataFlavor[] { TSV_FLAVOR, DataFlavor.stringFlavor };
+		}
+
+		@Override
+		public boolean isDataFlavorSupported(DataFlavor flavor) {
+			return flavor.equals(TSV_FLAVOR) || flavor.equals(DataFlavor.stringFlavor);
+		}
+
+		@Override
+		public synchronized Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
+			if (!isDataFlavorSupported(flavor))
+				throw new UnsupportedFlavorException(flavor);
+			
+			if (text == null)
+				text = writeText();
+			return text;
+		}
+		
+		private String writeText() throws IOException {
+			StringWriter out = new StringWriter(rows.length * numbers.length * 8);
+			DelimitedTextWriter writer = new DelimitedTextWriter(out, '\t', "\n");
+			
+			for (int r = 0; r < rows.length; r++) {
+				if (r > 0)
+					writer.endRow();
+				for (int c = 0; c < numbers.length; c++) {
+					if (numbers[c] != null)
+						writer.writeExactField(numbers[c][r]);
+					else if (texts[c] != null)
+						writer.writeField(texts[c][r]);
+					else
+						writer.writeField(rows[r] + 1);
+				}
+			}
+			writer.flush();
+			
+			return out.toString();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.awt.Component;
+
+import javax.swing.JTable;
+import javax.swing.table.TableCellRenderer;
+
+/**
+ * JTable for a MarsTableModel. Numeric cells are painted by a DoubleCellRenderer 
+ * straight from the primitive values, without asking the model for boxed values.
+ */
+public class MarsTableView extends JTable {
+	private static final long serialVersionUID = 1L;
+	
+	private final MarsTableModel model;
+	private final DoubleCellRenderer doubleRenderer;
+	
+	public MarsTableView(MarsTableModel model) {
+		super(model);
+		this.model = model;
+		this.doubleRenderer = new DoubleCellRenderer(model);
+	}
+	
+	@Override
+	public TableCellRenderer getCellRenderer(int row, int column) {
+		if (model.isNumeric(convertColumnIndexToModel(column)))
+			return doubleRenderer;
+		return super.getCellRenderer(row, column);
+	}
+	
+	@Override
+	public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
+		if (renderer != doubleRenderer)
+			return super.prepareRenderer(renderer, row, column);
+		
+		// same selection and focus rules as JTable
+		boolean isSelected = false;
+		boolean hasFocus = false;
+		if (!isPaintingForPrint()) {
+			isSelected = isCellSelected(row, column);
+			boolean rowIsLead = (getSelectionModel().getLeadSelectionIndex() == row);
+			boolean colIsLead = (getColumnModel().getSelectionModel().getLeadSelectionIndex() == column);
+			hasFocus = (rowIsLead && colIsLead) && isFocusOwner();
+		}
+		
+		return doubleRenderer.getTableCellRendererComponent(this, isSelected, hasFocus, row, column, 
+				convertRowIndexToModel(row), convertColumnIndexToModel(column));
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (C) 2019, Duderstadt Lab
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package de.mpg.biochem.mars.swing.table;
+
+
+import java.awt.BorderLayout;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+/**
+ * Writes a table in the background. The table is written under the target name into a 
+ * temporary directory next to the target, and the files written there only replace 
+ * existing files once they are complete, so an existing file is never left half written. 
+ * Files keep the names the writer gave them, also if it added an extension. While the 
+ * task runs, a bar at the bottom of the frame shows the bytes written so far and a 
+ * button to cancel. The writers of MarsTable can't be interrupted, so canceling waits 
+ * for them to return and then discards what they wrote.
+ */
+class TableSaveTask {
+	
+	interface TableWriter {
+		void write(String path) throws IOException;
+	}
+	
+	private final MarsTableSwingFrame frame;
+	private final File target;
+	private final TableWriter writer;
+	
+	private volatile boolean canceled = false;
+	private volatile File tempDirectory;
+	
+	private final JPanel statusPanel = new JPanel(new BorderLayout());
+	private final JLabel statusLabel = new JLabel();
+	private final JButton cancelButton = new JButton("Cancel");
+	private Timer statusTimer;
+	
+	TableSaveTask(MarsTableSwingFrame frame, File target, TableWriter writer) {
+		this.frame = frame;
+		this.target = target;
+		this.writer = writer;
+	}
+	
+	void execute() {
+		JProgressBar progressBar = new JProgressBar();
+		progressBar.setIndeterminate(true);
+		statusPanel.add(statusLabel, BorderLayout.WEST);
+		statusPanel.add(progressBar, BorderLayout.CENTER);
+		statusPanel.add(cancelButton, BorderLayout.EAST);
+		statusLabel.setText("Writing " + target.getName() + " ");
+		cancelButton.addActionListener(e -> {
+			canceled = true;
+			cancelButton.setEnabled(false);
+			statusLabel.setText("Canceling, waiting for the writer to finish ");
+		});
+		
+		frame.setSaving(true, statusPanel);
+		
+		SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws Exception {
+				File directory = target.getAbsoluteFile().getParentFile();
+				tempDirectory = Files.createTempDirectory(directory.toPath(), "." + target.getName() + "-").toFile();
+				try {
+					writer.write(new File(tempDirectory, target.getName()).getPath());
+					
+					if (!canceled) {
+						File[] written = tempDirectory.listFiles();
+						if (written == null || written.length == 0)
+							throw new IOException("nothing was written");
+						
+						for (File file : written)
+							move(file, new File(directory, file.getName()));
+					}
+				} finally {
+					File[] remaining = tempDirectory.listFiles();
+					if (remaining != null)
+						for (File file : remaining)
+							Files.deleteIfExists(file.toPath());
+					Files.deleteIfExists(tempDirectory.toPath());
+				}
+				return null;
+			}
+			
+			@Override
+			protected void done() {
+				statusTimer.stop();
+				frame.setSaving(false, statusPanel);
+				try {
+					get();
+				} catch (ExecutionException e) {
+					JOptionPane.showMessageDialog(statusPanel.getTopLevelAncestor(), String.format("could not write %s : %s", target.getName(), e.getCause().getMessage()), "Exception", JOptionPane.ERROR_MESSAGE);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		
+		statusTimer = new Timer(250, e -> {
+			if (!canceled && tempDirectory != null)
+				statusLabel.setText(String.format("Writing %s (%.1f MB) ", target.getName(), bytesWritten() / 1e6));
+		});
+		statusTimer.start();
+		
+		worker.execute();
+	}
+	
+	private long bytesWritten() {
+		File[] files = tempDirectory.listFiles();
+		long bytes = 0;
+		if (files != null)
+			for (File file : files)
+				bytes += file.length();
+		return bytes;
+	}
+	
+	private static void move(File source, File destination) throws IOException {
+		try {
+			Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}